@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2003-2016, GameDuell GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package duell.build.helpers;
+
+import duell.helpers.LogHelper;
+import duell.helpers.PathHelper;
+
+import haxe.crypto.Md5;
+import haxe.io.Path;
+
+import sys.FileSystem;
+import sys.io.File;
+
+using StringTools;
+
+/// Local content addressed cache for build artifacts.
+/// An entry is a folder named after the hash of everything that went into the artifacts (file contents, arguments,
+/// tool paths), so a hit means that the build step would produce the same files again. File hashes are remembered
+/// together with size and modification time, so unchanged files are not read again on the next build. A file that was
+/// modified shortly before its hash was taken is read again, an edit right after could keep both size and mtime when
+/// the file system stores the mtime in whole seconds.
+/// The least recently used entries are removed when the cache grows over its maximum size.
+class BuildCache
+{
+	private static inline var INDEX_FILE = "index.txt";
+	/// the stats of older versions had whole second mtimes and no hash time
+	private static inline var STAT_FILE = "filestats.txt";
+	/// an mtime closer than this to the time of the hash can't tell a later edit apart
+	private static inline var RACY_WINDOW_MS = 2000.0;
+
+	private var directory : String;
+	private var maxBytes : Float;
+
+	/// key -> size in bytes and last access in seconds
+	private var entries : Map<String, {size : Float, lastAccess : Float}>;
+	/// path -> size, mtime in milliseconds, time of the hash in milliseconds and md5 of the content
+	private var stats : Map<String, {size : Int, mtime : Float, hashed : Float, hash : String}>;
+
+	private var hits : Array<String> = [];
+	private var misses : Array<String> = [];
+
+	public function new(directory : String, maxBytes : Float)
+	{
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+
+		PathHelper.mkdir(directory);
+
+		entries = new Map();
+		var indexPath = Path.join([directory, INDEX_FILE]);
+		if (FileSystem.exists(indexPath))
+		{
+			for (line in File.getContent(indexPath).split("\n"))
+			{
+				var parts = line.split(" ");
+				if (parts.length == 3 && FileSystem.exists(Path.join([directory, parts[0]])))
+					entries.set(parts[0], {size : Std.parseFloat(parts[1]), lastAccess : Std.parseFloat(parts[2])});
+			}
+		}
+
+		stats = new Map();
+		var statPath = Path.join([directory, STAT_FILE]);
+		if (FileSystem.exists(statPath))
+		{
+			for (line in File.getContent(statPath).split("\n"))
+			{
+				/// the path goes last, it may contain spaces
+				var parts = line.split(" ");
+				if (parts.length >= 5)
+					stats.set(parts.slice(4).join(" "), {size : Std.parseInt(parts[0]), mtime : Std.parseFloat(parts[1]),
+														 hashed : Std.parseFloat(parts[2]), hash : parts[3]});
+			}
+		}
+	}
+
+	public function hashFile(path : String) : String
+	{
+		var stat = FileSystem.stat(path);
+		var mtime = stat.mtime.getTime();
+		var known = stats.get(path);
+
+		if (known != null && known.size == stat.size && known.mtime == mtime && known.hashed - mtime > RACY_WINDOW_MS)
+			return known.hash;
+
+		var hashed = Date.now().getTime();
+		var hash = Md5.make(File.getBytes(path)).toHex();
+		stats.set(path, {size : stat.size, mtime : mtime, hashed : hashed, hash : hash});
+		return hash;
+	}
+
+	/// hash of the relative paths and contents of the files with the given extensions under the folder
+	public function hashDirectory(path : String, extensions : Array<String>) : String
+	{
+		if (!FileSystem.exists(path) || !FileSystem.isDirectory(path))
+			return "missing:" + path;
+
+		var files = PathHelper.getRecursiveFileListUnderFolder(path).filter(function(file)
+			return extensions.indexOf(Path.extension(file).toLowerCase()) != -1);
+		files.sort(Reflect.compare);
+
+		var parts = [];
+		for (file in files)
+		{
+			parts.push(file + "=" + hashFile(Path.join([path, file])));
+		}
+
+		return Md5.encode(parts.join("\n"));
+	}
+
+	public function makeKey(inputs : Array<String>) : String
+	{
+		return Md5.encode(inputs.join("\n"));
+	}
+
+	/// copies the files of the entry to their destinations and returns true, or returns false if there is no entry
+	public function restore(key : String, label : String, files : Array<{name : String, path : String}>) : Bool
+	{
+		var entryDirectory = Path.join([directory, key]);
+
+		if (!entries.exists(key) || !Lambda.foreach(files, function(file) return FileSystem.exists(Path.join([entryDirectory, file.name]))))
+		{
+			misses.push(label);
+			return false;
+		}
+
+		for (file in files)
+		{
+			PathHelper.mkdir(Path.directory(file.path));
+			File.copy(Path.join([entryDirectory, file.name]), file.path);
+		}
+
+		entries.get(key).lastAccess = Date.now().getTime() / 1000;
+		hits.push(label);
+		return true;
+	}
+
+	public function store(key : String, files : Array<{name : String, path : String}>) : Void
+	{
+		var entryDirectory = Path.join([directory, key]);
+		var temporaryDirectory = entryDirectory + ".tmp";
+
+		if (FileSystem.exists(temporaryDirectory))
+			PathHelper.removeDirectory(temporaryDirectory);
+
+		PathHelper.mkdir(temporaryDirectory);
+
+		var size = 0.0;
+		for (file in files)
+		{
+			if (!FileSystem.exists(file.path))
+			{
+				PathHelper.removeDirectory(temporaryDirectory);
+				return;
+			}
+
+			File.copy(file.path, Path.join([temporaryDirectory, file.name]));
+			size += FileSystem.stat(file.path).size;
+		}
+
+		/// renamed into place, an interrupted build never leaves a partial entry behind
+		if (FileSystem.exists(entryDirectory))
+			PathHelper.removeDirectory(entryDirectory);
+
+		FileSystem.rename(temporaryDirectory, entryDirectory);
+		entries.set(key, {size : size, lastAccess : Date.now().getTime() / 1000});
+	}
+
+	/// evicts the least recently used entries over the maximum size and writes the index
+	public function save() : Void
+	{
+		var keys = [for (key in entries.keys()) key];
+		keys.sort(function(a, b) return Reflect.compare(entries.get(a).lastAccess, entries.get(b).lastAccess));
+
+		var total = 0.0;
+		for (key in keys)
+		{
+			total += entries.get(key).size;
+		}
+
+		while (total > maxBytes && keys.length > 0)
+		{
+			var key = keys.shift();
+			total -= entries.get(key).size;
+			entries.remove(key);
+			PathHelper.removeDirectory(Path.join([directory, key]));
+		}
+
+		var index = new StringBuf();
+		for (key in keys)
+		{
+			var entry = entries.get(key);
+			index.add('$key ${Std.int(entry.size)} ${Std.int(entry.lastAccess)}\n');
+		}
+		File.saveContent(Path.join([directory, INDEX_FILE]), index.toString());
+
+		var statLines = new StringBuf();
+		for (path in stats.keys())
+		{
+			if (!FileSystem.exists(path))
+				continue;
+
+			var stat = stats.get(path);
+			statLines.add('${stat.size} ${stat.mtime} ${stat.hashed} ${stat.hash} $path\n');
+		}
+		File.saveContent(Path.join([directory, STAT_FILE]), statLines.toString());
+	}
+
+	public function report() : Void
+	{
+		if (hits.length == 0 && misses.length == 0)
+			return;
+
+		LogHelper.info('Build cache: ${hits.length} hits, ${misses.length} misses');
+
+		if (hits.length > 0)
+			LogHelper.info("    hits: " + hits.join(", "));
+
+		if (misses.length > 0)
+			LogHelper.info("    misses: " + misses.join(", "));
+	}
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 2003-2016, GameDuell GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package duell.build.helpers;
+
+import haxe.io.Bytes;
+
+import sys.FileSystem;
+import sys.io.File;
+import sys.io.FileInput;
+import sys.io.FileSeek;
+
+/// Minimal reader for the little endian ELF shared objects produced by the NDK.
+/// Only the headers and sections that are asked for are read, never the whole file.
+class ElfReader
+{
+	private static inline var ELF_CLASS_64 = 2;
+	private static inline var SHT_SYMTAB = 2;
+	private static inline var SHT_DYNSYM = 11;
+	private static inline var STT_FUNC = 2;
+	private static inline var EM_ARM = 40;
+	private static inline var SHT_DYNAMIC = 6;
+	private static inline var SHT_NOTE = 7;
+	private static inline var NT_GNU_BUILD_ID = 3;
+	private static inline var DT_NULL = 0;
+	private static inline var DT_NEEDED = 1;
+
+	/// returns the DT_NEEDED entries of the shared object, e.g. ["libstd.so", "liblog.so"]
+	public static function getNeededLibraries(path : String) : Array<String>
+	{
+		var needed = [];
+
+		if (!FileSystem.exists(path))
+			return needed;
+
+		var input = File.read(path, true);
+
+		try
+		{
+			var header = readAt(input, 0, 64);
+
+			if (header.get(0) != 0x7F || header.getString(1, 3) != "ELF")
+				throw "not an ELF file";
+
+			var is64 = header.get(4) == ELF_CLASS_64;
+
+			var sectionHeaderOffset = is64 ? header.getInt32(0x28) : header.getInt32(0x20);
+			var sectionHeaderSize = is64 ? header.getUInt16(0x3A) : header.getUInt16(0x2E);
+			var sectionHeaderCount = is64 ? header.getUInt16(0x3C) : header.getUInt16(0x30);
+
+			var sections = readAt(input, sectionHeaderOffset, sectionHeaderSize * sectionHeaderCount);
+
+			for (i in 0...sectionHeaderCount)
+			{
+				var base = i * sectionHeaderSize;
+
+				if (sections.getInt32(base + 4) != SHT_DYNAMIC)
+					continue;
+
+				var dynamicOffset = is64 ? sections.getInt32(base + 0x18) : sections.getInt32(base + 0x10);
+				var dynamicSize = is64 ? sections.getInt32(base + 0x20) : sections.getInt32(base + 0x14);
+				var stringTableIndex = is64 ? sections.getInt32(base + 0x28) : sections.getInt32(base + 0x18);
+
+				var stringTableBase = stringTableIndex * sectionHeaderSize;
+				var stringTableOffset = is64 ? sections.getInt32(stringTableBase + 0x18) : sections.getInt32(stringTableBase + 0x10);
+				var stringTableSize = is64 ? sections.getInt32(stringTableBase + 0x20) : sections.getInt32(stringTableBase + 0x14);
+
+				var dynamic = readAt(input, dynamicOffset, dynamicSize);
+				var strings = readAt(input, stringTableOffset, stringTableSize);
+
+				var entrySize = is64 ? 16 : 8;
+				var entry = 0;
+				while (entry + entrySize <= dynamicSize)
+				{
+					var tag = dynamic.getInt32(entry);
+					var value = dynamic.getInt32(entry + (is64 ? 8 : 4));
+
+					if (tag == DT_NULL)
+						break;
+
+					if (tag == DT_NEEDED)
+						needed.push(readCString(strings, value));
+
+					entry += entrySize;
+				}
+			}
+		}
+		catch (error : Dynamic)
+		{
+			input.close();
+			throw 'Could not read the ELF dynamic section of $path: $error';
+		}
+
+		input.close();
+		return needed;
+	}
+
+	/// returns the GNU build id as hex string, which crash reports use to match a library with its symbols,
+	/// or null if the library has none
+	public static function getBuildId(path : String) : String
+	{
+		if (!FileSystem.exists(path))
+			return null;
+
+		var input = File.read(path, true);
+		var buildId : String = null;
+
+		try
+		{
+			var header = readAt(input, 0, 64);
+
+			if (header.get(0) != 0x7F || header.getString(1, 3) != "ELF")
+				throw "not an ELF file";
+
+			var is64 = header.get(4) == ELF_CLASS_64;
+
+			var sectionHeaderOffset = is64 ? header.getInt32(0x28) : header.getInt32(0x20);
+			var sectionHeaderSize = is64 ? header.getUInt16(0x3A) : header.getUInt16(0x2E);
+			var sectionHeaderCount = is64 ? header.getUInt16(0x3C) : header.getUInt16(0x30);
+
+			var sections = readAt(input, sectionHeaderOffset, sectionHeaderSize * sectionHeaderCount);
+
+			for (i in 0...sectionHeaderCount)
+			{
+				var base = i * sectionHeaderSize;
+
+				if (sections.getInt32(base + 4) != SHT_NOTE)
+					continue;
+
+				var noteOffset = is64 ? sections.getInt32(base + 0x18) : sections.getInt32(base + 0x10);
+				var noteSize = is64 ? sections.getInt32(base + 0x20) : sections.getInt32(base + 0x14);
+				var notes = readAt(input, noteOffset, noteSize);
+
+				/// namesz, descsz and type, followed by name and desc, each padded to 4 bytes
+				var position = 0;
+				while (position + 12 <= noteSize)
+				{
+					var nameSize = notes.getInt32(position);
+					var descSize = notes.getInt32(position + 4);
+					var type = notes.getInt32(position + 8);
+					var descOffset = position + 12 + align4(nameSize);
+
+					if (type == NT_GNU_BUILD_ID && nameSize == 4 && notes.getString(position + 12, 3) == "GNU")
+					{
+						buildId = notes.sub(descOffset, descSize).toHex();
+						break;
+					}
+
+					position = descOffset + align4(descSize);
+				}
+
+				if (buildId != null)
+					break;
+			}
+		}
+		catch (error : Dynamic)
+		{
+			input.close();
+			throw 'Could not read the ELF notes of $path: $error';
+		}
+
+		input.close();
+		return buildId;
+	}
+
+	/// returns the functions of the symbol table, or of the dynamic symbol table when the library is stripped,
+	/// sorted by address. On arm the thumb bit is cleared from the addresses.
+	public static function getFunctionSymbols(path : String) : Array<{address : Int, size : Int, name : String}>
+	{
+		var functions = [];
+
+		if (!FileSystem.exists(path))
+			return functions;
+
+		var input = File.read(path, true);
+
+		try
+		{
+			var header = readAt(input, 0, 64);
+
+			if (header.get(0) != 0x7F || header.getString(1, 3) != "ELF")
+				throw "not an ELF file";
+
+			var is64 = header.get(4) == ELF_CLASS_64;
+			var addressMask = header.getUInt16(0x12) == EM_ARM ? ~1 : ~0;
+
+			var sectionHeaderOffset = is64 ? header.getInt32(0x28) : header.getInt32(0x20);
+			var sectionHeaderSize = is64 ? header.getUInt16(0x3A) : header.getUInt16(0x2E);
+			var sectionHeaderCount = is64 ? header.getUInt16(0x3C) : header.getUInt16(0x30);
+
+			var sections = readAt(input, sectionHeaderOffset, sectionHeaderSize * sectionHeaderCount);
+
+			var symbolTableBase = -1;
+			for (type in [SHT_SYMTAB, SHT_DYNSYM])
+			{
+				for (i in 0...sectionHeaderCount)
+				{
+					if (sections.getInt32(i * sectionHeaderSize + 4) == type)
+					{
+						symbolTableBase = i * sectionHeaderSize;
+						break;
+					}
+				}
+
+				if (symbolTableBase != -1)
+					break;
+			}
+
+			if (symbolTableBase != -1)
+			{
+				var symbolsOffset = is64 ? sections.getInt32(symbolTableBase + 0x18) : sections.getInt32(symbolTableBase + 0x10);
+				var symbolsSize = is64 ? sections.getInt32(symbolTableBase + 0x20) : sections.getInt32(symbolTableBase + 0x14);
+				var stringTableIndex = is64 ? sections.getInt32(symbolTableBase + 0x28) : sections.getInt32(symbolTableBase + 0x18);
+
+				var stringTableBase = stringTableIndex * sectionHeaderSize;
+				var stringTableOffset = is64 ? sections.getInt32(stringTableBase + 0x18) : sections.getInt32(stringTableBase + 0x10);
+				var stringTableSize = is64 ? sections.getInt32(stringTableBase + 0x20) : sections.getInt32(stringTableBase + 0x14);
+
+				var symbols = readAt(input, symbolsOffset, symbolsSize);
+				var strings = readAt(input, stringTableOffset, stringTableSize);
+
+				/// Elf32_Sym: name, value, size, info, other, shndx; Elf64_Sym: name, info, other, shndx, value, size
+				var entrySize = is64 ? 24 : 16;
+				var entry = 0;
+				while (entry + entrySize <= symbolsSize)
+				{
+					var info = symbols.get(entry + (is64 ? 4 : 12));
+					var address = symbols.getInt32(entry + (is64 ? 8 : 4));
+					var size = symbols.getInt32(entry + (is64 ? 16 : 8));
+
+					if ((info & 0xF) == STT_FUNC && address != 0)
+						functions.push({address : address & addressMask, size : size, name : readCString(strings, symbols.getInt32(entry))});
+
+					entry += entrySize;
+				}
+			}
+		}
+		catch (error : Dynamic)
+		{
+			input.close();
+			throw 'Could not read the ELF symbols of $path: $error';
+		}
+
+		input.close();
+
+		functions.sort(function(a, b) return a.address - b.address);
+		return functions;
+	}
+
+	/// returns the name of the function that contains the address, or null, for symbols returned by getFunctionSymbols
+	public static function findFunction(functions : Array<{address : Int, size : Int, name : String}>, address : Int) : String
+	{
+		var symbol = findFunctionSymbol(functions, address);
+		return symbol != null ? symbol.name : null;
+	}
+
+	public static function findFunctionSymbol(functions : Array<{address : Int, size : Int, name : String}>, address : Int) : {address : Int, size : Int, name : String}
+	{
+		var low = 0;
+		var high = functions.length - 1;
+		var found = -1;
+
+		/// the last function that starts at or before the address
+		while (low <= high)
+		{
+			var middle = (low + high) >> 1;
+
+			if (functions[middle].address <= address)
+			{
+				found = middle;
+				low = middle + 1;
+			}
+			else
+			{
+				high = middle - 1;
+			}
+		}
+
+		if (found == -1)
+			return null;
+
+		var symbol = functions[found];
+		if (symbol.size > 0 && address >= symbol.address + symbol.size)
+			return null;
+
+		return symbol;
+	}
+
+	private static inline function align4(value : Int) : Int
+	{
+		return (value + 3) & ~3;
+	}
+
+	private static function readAt(input : FileInput, offset : Int, length : Int) : Bytes
+	{
+		input.seek(offset, SeekBegin);
+		return input.read(length);
+	}
+
+	private static function readCString(bytes : Bytes, offset : Int) : String
+	{
+		var end = offset;
+		while (end < bytes.length && bytes.get(end) != 0)
+		{
+			end++;
+		}
+
+		return bytes.getString(offset, end - offset);
+	}
+}
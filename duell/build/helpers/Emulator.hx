@@ -47,17 +47,27 @@ enum EmulatorArchitecture
 @:access(duell.objects.DuellProcess)
 class Emulator
 {
-	private static inline var EMULATOR_IS_RUNNING_TIME_TO_CHECK = 3;
+	private static inline var EMULATOR_IS_RUNNING_TIME_TO_CHECK = 0.2;
 	private static inline var SECONDS_BEFORE_GIVINGUP_ON_EMULATOR_LAUNCHING = 300;
+	private static inline var MAX_SECONDS_BETWEEN_WATCHER_RESTARTS = 8.0;
+	private static inline var WATCHER_FAILURES_BEFORE_RESTARTING_ADB = 3;
+	private static inline var SECONDS_TO_SAVE_SNAPSHOT = 30;
+
+	/// blocks on the device until the boot animation is done and the package manager is up
+	private static inline var WAIT_FOR_BOOT_COMPLETED = "while [ \"$(getprop sys.boot_completed)\" != \"1\" ]; do sleep 1; done; echo booted";
+
 	private var emulatorName: String;
 	private var emulatorArchitecture: EmulatorArchitecture;
 
 	private var emulatorProcess: DuellProcess;
 
 	private var portToUse: Int = 0;
+	private var coldBoot: Bool = true;
+	private var timeStarted: Float = 0;
 
 	private var adbPath: String;
 	private var emulatorPath: String;
+	private var secondsBeforeGivingUp: Float = SECONDS_BEFORE_GIVINGUP_ON_EMULATOR_LAUNCHING;
 
 	public function new(emulatorName: String, emulatorArchitecture: EmulatorArchitecture = null): Void
 	{
@@ -66,8 +76,18 @@ class Emulator
 
 		var hxcppConfig = HXCPPConfigXML.getConfig(HXCPPConfigXMLHelper.getProbableHXCPPConfigLocation());
 		var defines : Map<String, String> = hxcppConfig.getDefines();
-		adbPath = Path.join([defines.get("ANDROID_SDK"), "platform-tools"]);
-		emulatorPath = Path.join([defines.get("ANDROID_SDK"), "tools"]);
+		adbPath = Arguments.isSet("-adbpath") ? Arguments.get("-adbpath") : Path.join([defines.get("ANDROID_SDK"), "platform-tools"]);
+		emulatorPath = Arguments.isSet("-emulatorpath") ? Arguments.get("-emulatorpath") : Path.join([defines.get("ANDROID_SDK"), "tools"]);
+
+		if (Arguments.isSet("-emulatortimeout"))
+		{
+			secondsBeforeGivingUp = Std.parseFloat(Arguments.get("-emulatortimeout"));
+
+			if (Math.isNaN(secondsBeforeGivingUp) || secondsBeforeGivingUp <= 0)
+			{
+				throw "-emulatortimeout needs a number of seconds, got " + Arguments.get("-emulatortimeout");
+			}
+		}
 	}
 
 	public function start(): Void
@@ -85,14 +105,24 @@ class Emulator
 					"-prop", "persist.sys.language=en",
 					"-prop", "persist.sys.country=GB",
 					"-port", "" + portToUse,
-					"-no-snapshot-load", "-no-snapshot-save",
 					"-gpu", "on"];
 
+		/// quick boot resumes from the snapshot saved by the previous shutdown, with the app and device state of then,
+		/// so it is opt-in. Wiping the data needs a cold boot.
+		coldBoot = !Arguments.isSet("-emulatorquickboot") || Arguments.isSet("-wipeemulator");
+
+		if (coldBoot)
+		{
+			args = args.concat(["-no-snapshot-load", "-no-snapshot-save"]);
+		}
+
 		if (Arguments.isSet("-wipeemulator"))
 		{
 			args.push("-wipe-data");
 		}
 
+		timeStarted = haxe.Timer.stamp();
+
 		var emulator = "emulator";
 		var actualEmulatorPath = emulatorPath;
 		if (PlatformHelper.hostPlatform == Platform.WINDOWS)
@@ -160,74 +190,143 @@ class Emulator
 
 	public function shutdown(): Void
 	{
-		if (emulatorProcess != null)
-			emulatorProcess.kill();
+		if (emulatorProcess == null)
+			return;
+
+		if (!coldBoot && !emulatorProcess.isFinished())
+		{
+			/// a regular exit saves the snapshot for the next quick boot, killing the process would not
+			runAdb(["-s", getSerial(), "emu", "kill"], "shutting down the emulator");
+
+			var timeShutdown = haxe.Timer.stamp();
+			while (!emulatorProcess.isFinished() && timeShutdown + SECONDS_TO_SAVE_SNAPSHOT > haxe.Timer.stamp())
+			{
+				Sys.sleep(EMULATOR_IS_RUNNING_TIME_TO_CHECK);
+			}
+		}
+
+		emulatorProcess.kill();
 	}
 
 	public function waitUntilReady(): Void
 	{
+		/// the emulator boots while the app builds, the phases below are measured from its launch
+		var deadline = haxe.Timer.stamp() + secondsBeforeGivingUp;
+		var serial = getSerial();
 
-		var timeStarted = haxe.Timer.stamp();
-
-		var argsConnect = ["connect", "localhost:" + portToUse];
-		var argsBoot = ["-s", "emulator-" + portToUse, "shell", "getprop", "dev.bootcomplete"];
-
-		var opts = {
-			timeout : 0.0,
-			mute: false,
-			shutdownOnError : false,
-			block : true,
-			errorMessage : "checking if emulator is connected",
-			systemCommand: false
-		};
+		var timeOnline = 0.0;
+		var failures = 0;
+		var secondsBeforeRetry = 1.0;
 
-		var alreadyConnected = false;
+		LogHelper.info("Waiting for the emulator to " + (coldBoot ? "cold boot" : "quick boot") + "...");
 
-		var startKillCounter = 10;
+		/// one adb process per phase that returns when the state changes, instead of polling the device
 		while (true)
 		{
-			if (!alreadyConnected && startKillCounter == 0)
+			if (failures == WATCHER_FAILURES_BEFORE_RESTARTING_ADB)
 			{
 				adbKillStartServer();
-				startKillCounter = 10;
+				failures = 0;
 			}
-			if (timeStarted + SECONDS_BEFORE_GIVINGUP_ON_EMULATOR_LAUNCHING < haxe.Timer.stamp())
-			{
-				throw "time out connecting to the emulator";
-			}
-
-			LogHelper.info("Trying to connect to the emulator...");
 
-			if (!alreadyConnected)
+			if (timeOnline == 0)
 			{
-				new DuellProcess(adbPath, "adb", argsConnect, opts);
-			}
+				runAdb(["connect", "localhost:" + portToUse], "connecting to the emulator");
 
-			var proc = new DuellProcess(adbPath, "adb", argsBoot, opts);
-			var output = proc.getCompleteStdout().toString();
-			var outputError = proc.getCompleteStderr().toString();
+				if (watch(["-s", serial, "wait-for-device"], null, deadline))
+				{
+					timeOnline = haxe.Timer.stamp();
 
-			if (output.indexOf("1") != -1)
-			{
-				break;
+					/// a later drop while booting is a new problem, not a continuation of this one
+					secondsBeforeRetry = 1.0;
+					failures = 0;
+				}
 			}
 
-			if (outputError.indexOf("device not found") != -1)
+			if (timeOnline != 0)
 			{
-				alreadyConnected = false;
+				if (watch(["-s", serial, "shell", WAIT_FOR_BOOT_COMPLETED], "booted", deadline))
+				{
+					break;
+				}
+
+				/// the device went offline while booting
+				timeOnline = 0;
 			}
-			else if(outputError.indexOf("device offline") != -1)
+
+			failures++;
+
+			LogHelper.info("Lost the connection to the emulator, retrying in " + secondsBeforeRetry + "s...");
+			Sys.sleep(secondsBeforeRetry);
+			secondsBeforeRetry = Math.min(secondsBeforeRetry * 2, MAX_SECONDS_BETWEEN_WATCHER_RESTARTS);
+		}
+
+		var timeBooted = haxe.Timer.stamp();
+		LogHelper.info("Emulator " + (coldBoot ? "cold" : "quick") + " boot took " + format(timeBooted - timeStarted) +
+					   "s: online after " + format(timeOnline - timeStarted) + "s, boot completed " + format(timeBooted - timeOnline) + "s later");
+	}
+
+	/// runs adb until it exits, returns whether it succeeded and printed the expected output
+	private function watch(args: Array<String>, expectedOutput: String, deadline: Float): Bool
+	{
+		var proc = new DuellProcess(adbPath, "adb", args,
+							{
+								timeout : 0,
+								logOnlyIfVerbose : true,
+								loggingPrefix : "[ADB]",
+								shutdownOnError : false,
+								block : false,
+								errorMessage : "waiting for the emulator",
+								systemCommand: false
+							});
+
+		while (!proc.isFinished())
+		{
+			if (emulatorProcess.isFinished())
 			{
-				alreadyConnected = false;
+				proc.kill();
+				throw "the emulator exited before it finished booting";
 			}
-			else
+
+			if (deadline < haxe.Timer.stamp())
 			{
-				alreadyConnected = true;
+				proc.kill();
+				throw "time out connecting to the emulator";
 			}
 
-			startKillCounter--;
 			Sys.sleep(EMULATOR_IS_RUNNING_TIME_TO_CHECK);
 		}
+
+		if (proc.exitCode() != 0)
+		{
+			return false;
+		}
+
+		return expectedOutput == null || proc.getCompleteStdout().toString().indexOf(expectedOutput) != -1;
+	}
+
+	private function runAdb(args: Array<String>, errorMessage: String): DuellProcess
+	{
+		return new DuellProcess(adbPath, "adb", args,
+							{
+								timeout : 0,
+								logOnlyIfVerbose : true,
+								loggingPrefix : "[ADB]",
+								shutdownOnError : false,
+								block : true,
+								errorMessage : errorMessage,
+								systemCommand: false
+							});
+	}
+
+	private function getSerial(): String
+	{
+		return "emulator-" + portToUse;
+	}
+
+	private static function format(seconds: Float): String
+	{
+		return "" + Math.round(seconds * 10) / 10;
 	}
 
 	public function waitUntilFinished(): Void
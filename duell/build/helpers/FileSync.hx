@@ -0,0 +1,379 @@
+/*
+ * Copyright (c) 2003-2016, GameDuell GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package duell.build.helpers;
+
+import duell.helpers.LogHelper;
+import duell.helpers.PathHelper;
+import duell.helpers.PlatformHelper;
+
+import haxe.crypto.Md5;
+import haxe.io.Path;
+
+import sys.FileSystem;
+import sys.io.File;
+import sys.io.Process;
+
+using StringTools;
+
+typedef FileSyncSource = {
+	/// a folder, or a single file
+	path : String,
+	/// where it goes relative to the destination, by default the root for folders and the file name for files
+	?target : String,
+	/// overrides allowHardlinks of the options for the files of this source
+	?allowHardlinks : Bool
+}
+
+typedef FileSyncOptions = {
+	/// file with the files synced last time, only those are deleted when they disappear from the source.
+	/// without it, every destination file that is not in the source is deleted.
+	/// it also keeps the size and modification time of both sides, so that unchanged files are not read again.
+	?manifest : String,
+	/// hardlinks are only safe if neither side is written in place later, so only for files the build generated
+	/// itself. Files of the user are cloned or copied.
+	?allowHardlinks : Bool,
+	/// files for which this returns false are left to someone else, but still count as part of the source
+	?filter : String -> Bool
+}
+
+private typedef FileSyncTransfer = {
+	source : String,
+	destination : String,
+	allowHardlink : Bool
+}
+
+/// Incremental one way sync of a folder.
+/// Files whose size and content did not change are not touched, so their modification time stays the same and
+/// gradle considers them up to date. Changed files are cloned (copy on write reflink), hardlinked or copied,
+/// whatever the file system supports first, and files that disappeared from the source are deleted in the same pass.
+/// Several sources can be synced into one destination, a later source overrides the files of an earlier one.
+/// Clones and hardlinks are made by one cp or ln process per destination folder, not per file.
+class FileSync
+{
+	/// keeps the command lines of cp and ln short enough for every host
+	private static inline var FILES_PER_PROCESS = 200;
+
+	private var canReflink : Bool;
+	private var canHardlink : Bool;
+
+	/// relative path -> "sourceSize sourceTime destinationSize destinationTime" of the last sync
+	private var knownStats : Map<String, String> = new Map();
+
+	public var unchanged(default, null) : Int = 0;
+	public var transferred(default, null) : Int = 0;
+	public var deleted(default, null) : Int = 0;
+
+	private function new()
+	{
+		canReflink = PlatformHelper.hostPlatform != Platform.WINDOWS;
+		canHardlink = PlatformHelper.hostPlatform != Platform.WINDOWS;
+	}
+
+	public static function sync(source : String, destination : String, ?options : FileSyncOptions) : FileSync
+	{
+		return syncAll([{path : source}], destination, options);
+	}
+
+	public static function syncAll(sources : Array<FileSyncSource>, destination : String, ?options : FileSyncOptions) : FileSync
+	{
+		if (options == null)
+			options = {};
+
+		var fileSync = new FileSync();
+		fileSync.run(sources, destination, options);
+
+		var names = [for (source in sources) source.path].join(", ");
+		LogHelper.info('Synced $names to $destination: ${fileSync.transferred} updated, ${fileSync.unchanged} unchanged, ${fileSync.deleted} deleted');
+		return fileSync;
+	}
+
+	private function run(sources : Array<FileSyncSource>, destination : String, options : FileSyncOptions) : Void
+	{
+		/// relative path -> source file, in the order the files were found
+		var files = [];
+		var sourceFiles = new Map<String, String>();
+		var hardlinkAllowed = new Map<String, Bool>();
+
+		for (source in sources)
+		{
+			if (!FileSystem.exists(source.path))
+				continue;
+
+			var allowHardlinks = source.allowHardlinks != null ? source.allowHardlinks : options.allowHardlinks == true;
+
+			if (FileSystem.isDirectory(source.path))
+			{
+				for (file in PathHelper.getRecursiveFileListUnderFolder(source.path))
+				{
+					var relative = source.target != null ? Path.join([source.target, file]) : file;
+					addSourceFile(files, sourceFiles, relative, Path.join([source.path, file]));
+					hardlinkAllowed.set(relative, allowHardlinks);
+				}
+			}
+			else
+			{
+				var relative = source.target != null ? source.target : Path.withoutDirectory(source.path);
+				addSourceFile(files, sourceFiles, relative, source.path);
+				hardlinkAllowed.set(relative, allowHardlinks);
+			}
+		}
+
+		var previousFiles = [];
+
+		if (options.manifest != null && FileSystem.exists(options.manifest))
+		{
+			for (line in File.getContent(options.manifest).split("\n"))
+			{
+				var columns = line.split("\t");
+				if (columns[0] == "")
+					continue;
+
+				previousFiles.push(columns[0]);
+
+				if (columns.length == 5)
+					knownStats.set(columns[0], columns.slice(1).join(" "));
+			}
+		}
+
+		var manifestFiles = [];
+		var transfers : Array<FileSyncTransfer> = [];
+
+		for (file in files)
+		{
+			var sourceFile = sourceFiles.get(file);
+			var destinationFile = Path.join([destination, file]);
+
+			if (options.filter != null && !options.filter(file))
+			{
+				manifestFiles.push({file : file, synced : false});
+				continue;
+			}
+
+			if (isSame(file, sourceFile, destinationFile, hardlinkAllowed.get(file)))
+			{
+				unchanged++;
+			}
+			else
+			{
+				transfers.push({source : sourceFile, destination : destinationFile, allowHardlink : hardlinkAllowed.get(file)});
+				transferred++;
+			}
+
+			manifestFiles.push({file : file, synced : true});
+		}
+
+		transferAll(transfers);
+
+		var manifestLines = [];
+
+		for (entry in manifestFiles)
+		{
+			if (!entry.synced)
+			{
+				manifestLines.push(entry.file);
+				continue;
+			}
+
+			var stats = getStats(sourceFiles.get(entry.file), Path.join([destination, entry.file]));
+			manifestLines.push(entry.file + "\t" + stats.split(" ").join("\t"));
+		}
+
+		var stale = [];
+
+		if (options.manifest != null)
+		{
+			for (file in previousFiles)
+			{
+				if (!sourceFiles.exists(file))
+					stale.push(file);
+			}
+
+			PathHelper.mkdir(Path.directory(options.manifest));
+			File.saveContent(options.manifest, manifestLines.join("\n"));
+		}
+		else if (FileSystem.exists(destination))
+		{
+			for (file in PathHelper.getRecursiveFileListUnderFolder(destination))
+			{
+				if (!sourceFiles.exists(file))
+					stale.push(file);
+			}
+		}
+
+		for (file in stale)
+		{
+			var destinationFile = Path.join([destination, file]);
+
+			if (FileSystem.exists(destinationFile) && !FileSystem.isDirectory(destinationFile))
+			{
+				FileSystem.deleteFile(destinationFile);
+				deleted++;
+			}
+		}
+	}
+
+	private static function addSourceFile(files : Array<String>, sourceFiles : Map<String, String>, relative : String, sourceFile : String) : Void
+	{
+		if (!sourceFiles.exists(relative))
+			files.push(relative);
+
+		sourceFiles.set(relative, sourceFile);
+	}
+
+	private static function getStats(sourceFile : String, destinationFile : String) : String
+	{
+		var sourceStat = FileSystem.stat(sourceFile);
+		var destinationStat = FileSystem.stat(destinationFile);
+
+		return [sourceStat.size, sourceStat.mtime.getTime(), destinationStat.size, destinationStat.mtime.getTime()].join(" ");
+	}
+
+	private function isSame(file : String, sourceFile : String, destinationFile : String, allowHardlink : Bool) : Bool
+	{
+		if (!FileSystem.exists(destinationFile))
+			return false;
+
+		var sourceStat = FileSystem.stat(sourceFile);
+		var destinationStat = FileSystem.stat(destinationFile);
+
+		if (sourceStat.size != destinationStat.size)
+			return false;
+
+		/// a hardlink of the source, no need to read the content. One that is not allowed (any more) is replaced.
+		if (sourceStat.ino == destinationStat.ino && sourceStat.dev == destinationStat.dev)
+			return allowHardlink;
+
+		/// neither side changed since they were found equal last time
+		if (knownStats.get(file) == [sourceStat.size, sourceStat.mtime.getTime(), destinationStat.size, destinationStat.mtime.getTime()].join(" "))
+			return true;
+
+		return Md5.make(File.getBytes(sourceFile)).toHex() == Md5.make(File.getBytes(destinationFile)).toHex();
+	}
+
+	private function transferAll(transfers : Array<FileSyncTransfer>) : Void
+	{
+		/// cp and ln put many files into one folder in one go, as long as the file names stay the same
+		var batches = new Map<String, Array<FileSyncTransfer>>();
+		var batchKeys = [];
+
+		for (transfer in transfers)
+		{
+			PathHelper.mkdir(Path.directory(transfer.destination));
+
+			/// never written in place, the old file may be a hardlink
+			if (FileSystem.exists(transfer.destination))
+				FileSystem.deleteFile(transfer.destination);
+
+			if (Path.withoutDirectory(transfer.source) != Path.withoutDirectory(transfer.destination))
+			{
+				File.copy(transfer.source, transfer.destination);
+				continue;
+			}
+
+			var key = (transfer.allowHardlink ? "link " : "copy ") + Path.directory(transfer.destination);
+
+			if (!batches.exists(key))
+			{
+				batches.set(key, []);
+				batchKeys.push(key);
+			}
+
+			batches.get(key).push(transfer);
+		}
+
+		for (key in batchKeys)
+		{
+			var batch = batches.get(key);
+			var start = 0;
+
+			while (start < batch.length)
+			{
+				transferBatch(batch.slice(start, start + FILES_PER_PROCESS));
+				start += FILES_PER_PROCESS;
+			}
+		}
+	}
+
+	/// the files of the batch all go into the same folder under their own names
+	private function transferBatch(batch : Array<FileSyncTransfer>) : Void
+	{
+		var folder = Path.directory(batch[0].destination);
+		var sources = [for (transfer in batch) transfer.source];
+
+		if (canReflink)
+		{
+			var flags = PlatformHelper.hostPlatform == Platform.MAC ? ["-c"] : ["--reflink=always"];
+
+			if (runQuietly("cp", flags.concat(sources).concat([folder])))
+				return;
+
+			/// not supported by this file system, don't try again for the other files
+			canReflink = false;
+			deleteDestinations(batch);
+		}
+
+		if (canHardlink && batch[0].allowHardlink)
+		{
+			if (runQuietly("ln", sources.concat([folder])))
+				return;
+
+			/// e.g. across file systems
+			canHardlink = false;
+			deleteDestinations(batch);
+		}
+
+		for (transfer in batch)
+			File.copy(transfer.source, transfer.destination);
+	}
+
+	/// what a failed cp or ln left behind
+	private static function deleteDestinations(batch : Array<FileSyncTransfer>) : Void
+	{
+		for (transfer in batch)
+		{
+			if (FileSystem.exists(transfer.destination))
+				FileSystem.deleteFile(transfer.destination);
+		}
+	}
+
+	private static function runQuietly(command : String, args : Array<String>) : Bool
+	{
+		try
+		{
+			var process = new Process(command, args);
+			process.stdout.readAll();
+			process.stderr.readAll();
+			var exitCode = process.exitCode();
+			process.close();
+			return exitCode == 0;
+		}
+		catch (error : Dynamic)
+		{
+			return false;
+		}
+	}
+}
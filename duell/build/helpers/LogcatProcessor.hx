@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2003-2016, GameDuell GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package duell.build.helpers;
+
+import duell.helpers.LogHelper;
+
+import haxe.io.Eof;
+import haxe.io.Input;
+import haxe.io.Path;
+
+import sys.FileSystem;
+import sys.io.File;
+
+using StringTools;
+
+typedef LogcatRecord = {
+	date : String,
+	time : String,
+	pid : Int,
+	tid : Int,
+	/// one of V, D, I, W, E, F, A
+	level : String,
+	tag : String,
+	message : String
+}
+
+typedef LogcatFilter = {
+	/// tags that are shown from the debug level on, the rest only from minimumLevel on
+	?tags : Array<String>,
+	?minimumLevel : String,
+	/// only records of this process, crash and ANR reports are always shown
+	?pid : Int,
+	/// everything is shown
+	?showAll : Bool
+}
+
+typedef LogcatReport = {
+	tag : String,
+	pid : Int,
+	tid : Int,
+	/// seconds since midnight of the last record of the report
+	lastTime : Float
+}
+
+/// Processes "adb logcat -v threadtime" output line by line: filters the records by tag, level and process, and
+/// recognizes native crashes, java crashes and ANRs. The frames of native backtraces are resolved against the
+/// unstripped libraries. Nothing is buffered beyond the current line, so it can follow a running logcat.
+/// A report is made of the records with the tag, pid and tid of its first record, other logging in between is
+/// filtered as usual. It ends with its own terminator, a new report, or when it has been quiet for a while.
+class LogcatProcessor
+{
+	private static inline var LEVELS = "VDIWEFA";
+	/// crash_dump and ActivityManager write a report in one go, a pause this long means it is over
+	private static inline var REPORT_TIMEOUT_SECONDS = 2.0;
+
+	private static var recordPattern = ~/^(\S+)\s+(\S+)\s+(\d+)\s+(\d+)\s+([VDIWEFA])\s+(.*?)\s*:(?: (.*))?$/;
+	private static var framePattern = ~/#(\d+)\s+pc\s+([0-9a-fA-F]+)\s+(\S+)/;
+	private static var abiPattern = ~/ABI: '([^']+)'/;
+	private static var timePattern = ~/^(\d+):(\d+):(\d+(?:\.\d+)?)$/;
+
+	public var crashes(default, null) : Int = 0;
+	public var anrs(default, null) : Int = 0;
+
+	private var filter : LogcatFilter;
+	private var minimumLevel : Int;
+	private var symbolicator : NativeSymbolicator;
+	private var output : String -> Void;
+
+	/// the crash or ANR report that is being shown, or null
+	private var report : LogcatReport = null;
+	private var crashABI : String = null;
+
+	public function new(filter : LogcatFilter, symbolicator : NativeSymbolicator, ?output : String -> Void)
+	{
+		this.filter = filter;
+		this.symbolicator = symbolicator;
+		this.output = output != null ? output : function(line) LogHelper.info("[LOGCAT] " + line);
+
+		minimumLevel = LEVELS.indexOf(filter.minimumLevel != null ? filter.minimumLevel : "E");
+	}
+
+	/// follows the stream until it ends
+	public function processInput(input : Input) : Void
+	{
+		try
+		{
+			while (true)
+			{
+				processLine(input.readLine());
+			}
+		}
+		catch (eof : Eof) {}
+	}
+
+	/// processes a recorded "adb logcat -v threadtime" file
+	public function processFile(path : String) : Void
+	{
+		var input = File.read(path, false);
+		processInput(input);
+		input.close();
+	}
+
+	public function processLine(line : String) : Void
+	{
+		line = line.rtrim();
+
+		if (!recordPattern.match(line))
+		{
+			/// "--------- beginning of main" and the like
+			if (filter.showAll)
+				output(line);
+			return;
+		}
+
+		var record : LogcatRecord = {
+			date : recordPattern.matched(1),
+			time : recordPattern.matched(2),
+			pid : Std.parseInt(recordPattern.matched(3)),
+			tid : Std.parseInt(recordPattern.matched(4)),
+			level : recordPattern.matched(5),
+			tag : recordPattern.matched(6),
+			message : recordPattern.matched(7) != null ? recordPattern.matched(7) : ""
+		};
+
+		processRecord(record, line);
+	}
+
+	public function processRecord(record : LogcatRecord, line : String) : Void
+	{
+		var time = parseTime(record.time);
+
+		if (report != null && time != null && (time < report.lastTime || time - report.lastTime > REPORT_TIMEOUT_SECONDS))
+			endReport();
+
+		/// also ends the current report
+		if (detectReport(record, time))
+		{
+			output(report.tag == "DEBUG" ? symbolicate(record, line) : line);
+			return;
+		}
+
+		if (report != null && record.tag == report.tag && record.pid == report.pid && record.tid == report.tid)
+		{
+			if (time != null)
+				report.lastTime = time;
+
+			output(report.tag == "DEBUG" ? symbolicate(record, line) : line);
+
+			if (report.tag == "DEBUG" && record.message.startsWith("Tombstone written to"))
+				endReport();
+			return;
+		}
+
+		/// the crashed process is killed right after its java stack trace
+		if (report != null && report.tag == "AndroidRuntime" && record.pid == report.pid && record.message.startsWith("Sending signal."))
+			endReport();
+
+		if (isShown(record))
+			output(line);
+	}
+
+	private function detectReport(record : LogcatRecord, time : Null<Float>) : Bool
+	{
+		var header = null;
+
+		if (record.tag == "DEBUG" && record.message.startsWith("*** *** ***"))
+		{
+			crashes++;
+			header = "==== native crash ====";
+		}
+		else if (record.tag == "AndroidRuntime" && record.message.startsWith("FATAL EXCEPTION"))
+		{
+			crashes++;
+			header = "==== java crash ====";
+		}
+		else if (record.tag == "ActivityManager" && record.message.startsWith("ANR in "))
+		{
+			anrs++;
+			header = "==== ANR ====";
+		}
+
+		if (header == null)
+			return false;
+
+		endReport();
+		report = {tag : record.tag, pid : record.pid, tid : record.tid, lastTime : time != null ? time : 0};
+		output(header);
+
+		return true;
+	}
+
+	private function endReport() : Void
+	{
+		report = null;
+		crashABI = null;
+	}
+
+	/// "HH:MM:SS.mmm" in seconds since midnight, or null
+	private static function parseTime(time : String) : Null<Float>
+	{
+		if (!timePattern.match(time))
+			return null;
+
+		return Std.parseInt(timePattern.matched(1)) * 3600 + Std.parseInt(timePattern.matched(2)) * 60 + Std.parseFloat(timePattern.matched(3));
+	}
+
+	private function isShown(record : LogcatRecord) : Bool
+	{
+		if (filter.showAll)
+			return true;
+
+		if (filter.pid != null && record.pid != filter.pid)
+			return false;
+
+		var level = LEVELS.indexOf(record.level);
+
+		if (level >= minimumLevel)
+			return true;
+
+		return filter.tags != null && filter.tags.indexOf(record.tag) != -1 && level >= LEVELS.indexOf("D");
+	}
+
+	private function symbolicate(record : LogcatRecord, line : String) : String
+	{
+		if (abiPattern.match(record.message))
+		{
+			crashABI = abiPattern.matched(1);
+			return line;
+		}
+
+		if (symbolicator == null || !framePattern.match(record.message))
+			return line;
+
+		var address = Std.parseInt("0x" + framePattern.matched(2));
+		var library = Path.withoutDirectory(framePattern.matched(3));
+		var symbol = symbolicator.lookup(crashABI, library, address);
+
+		return symbol != null ? line + "  -> " + symbol : line;
+	}
+}
+
+/// Resolves addresses in the native libraries of the build to function names. The symbols of a library are read once,
+/// the first time one of its addresses is looked up.
+class NativeSymbolicator
+{
+	/// the ABI line of a tombstone names the architecture, the libraries are in the folders of the abis
+	private static var abiFolders = ["arm" => ["armeabi-v7a", "armeabi"],
+									 "arm64" => ["arm64-v8a", "arm64"],
+									 "x86" => ["x86"]];
+
+	private var librariesDirectory : String;
+	private var indexes = new Map<String, Array<{address : Int, size : Int, name : String}>>();
+
+	public function new(librariesDirectory : String)
+	{
+		this.librariesDirectory = librariesDirectory;
+	}
+
+	/// returns "function+0xoffset", or null if the library or the address is unknown
+	public function lookup(abi : String, library : String, address : Int) : String
+	{
+		var path = findLibrary(abi, library);
+
+		if (path == null)
+			return null;
+
+		if (!indexes.exists(path))
+			indexes.set(path, ElfReader.getFunctionSymbols(path));
+
+		var symbol = ElfReader.findFunctionSymbol(indexes.get(path), address);
+
+		if (symbol == null)
+			return null;
+
+		return symbol.name + "+0x" + StringTools.hex(address - symbol.address);
+	}
+
+	private function findLibrary(abi : String, library : String) : String
+	{
+		var folders = abi != null && abiFolders.exists(abi) ? abiFolders.get(abi) : [];
+
+		/// without an ABI line, any architecture that has the library
+		if (folders.length == 0 && FileSystem.exists(librariesDirectory))
+			folders = FileSystem.readDirectory(librariesDirectory);
+
+		for (folder in folders)
+		{
+			var path = Path.join([librariesDirectory, folder, library]);
+
+			if (FileSystem.exists(path))
+				return path;
+		}
+
+		return null;
+	}
+}
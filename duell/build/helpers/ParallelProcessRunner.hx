@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2003-2016, GameDuell GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package duell.build.helpers;
+
+import duell.objects.DuellProcess;
+
+import duell.helpers.LogHelper;
+
+typedef ParallelProcessJob = {
+	/// shown in the log, e.g. the architecture
+	name : String,
+	path : String,
+	command : String,
+	args : Array<String>,
+	errorMessage : String,
+	/// true by default, false runs command from path
+	?systemCommand : Bool
+}
+
+/// Runs processes concurrently, at most maxParallel at a time.
+/// The output of each process is captured and printed as one block once it finishes, so that the output of
+/// concurrent builds does not interleave. The first failure kills the running processes, skips the pending
+/// ones and throws.
+@:access(duell.objects.DuellProcess)
+class ParallelProcessRunner
+{
+	private static inline var POLL_INTERVAL = 0.1;
+
+	public static function run(jobs : Array<ParallelProcessJob>, maxParallel : Int) : Void
+	{
+		if (maxParallel < 1)
+			maxParallel = 1;
+
+		var pending = jobs.copy();
+		var running : Array<{job : ParallelProcessJob, process : DuellProcess, started : Float}> = [];
+		var failure : String = null;
+
+		while (failure == null && (pending.length > 0 || running.length > 0))
+		{
+			while (pending.length > 0 && running.length < maxParallel)
+			{
+				var job = pending.shift();
+				LogHelper.info('[${job.name}] ${job.command} ${job.args.join(" ")}');
+
+				var process = new DuellProcess(
+										job.path,
+										job.command,
+										job.args,
+										{
+											timeout : 0,
+											mute : true,
+											shutdownOnError : false,
+											block : false,
+											errorMessage : job.errorMessage,
+											systemCommand : job.systemCommand != false
+										});
+
+				running.push({job : job, process : process, started : haxe.Timer.stamp()});
+			}
+
+			Sys.sleep(POLL_INTERVAL);
+
+			for (entry in running.copy())
+			{
+				if (!entry.process.isFinished())
+					continue;
+
+				running.remove(entry);
+
+				var exitCode = entry.process.exitCode();
+				printOutput(entry.job, entry.process, exitCode, haxe.Timer.stamp() - entry.started);
+
+				if (exitCode != 0)
+				{
+					failure = 'Problem ${entry.job.errorMessage} for ${entry.job.name}, exit code $exitCode';
+					break;
+				}
+			}
+		}
+
+		if (failure != null)
+		{
+			for (entry in running)
+			{
+				LogHelper.info('[${entry.job.name}] aborted');
+				entry.process.kill();
+			}
+
+			for (job in pending)
+			{
+				LogHelper.info('[${job.name}] skipped');
+			}
+
+			throw failure;
+		}
+	}
+
+	private static function printOutput(job : ParallelProcessJob, process : DuellProcess, exitCode : Int, seconds : Float) : Void
+	{
+		var stdout = process.getCompleteStdout().toString();
+		var stderr = process.getCompleteStderr().toString();
+
+		var header = '[${job.name}] finished in ${Std.int(seconds * 10) / 10}s with exit code $exitCode';
+
+		if (exitCode != 0)
+		{
+			LogHelper.println(header);
+			LogHelper.println(stdout);
+			LogHelper.println(stderr);
+			return;
+		}
+
+		LogHelper.info(header);
+		LogHelper.info(stdout);
+
+		if (stderr.length > 0)
+			LogHelper.info(stderr);
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2003-2016, GameDuell GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package duell.build.helpers;
+
+import duell.helpers.LogHelper;
+import duell.helpers.PathHelper;
+import duell.helpers.PlatformHelper;
+
+import haxe.io.Path;
+
+import sys.FileSystem;
+import sys.io.File;
+
+typedef PhaseTiming = {
+	/// nested phases are joined with a dot, e.g. "build.buildHaxe"
+	name : String,
+	wall : Float,
+	cpu : Float
+}
+
+/// Measures the wall clock and CPU time of the build phases and writes them as a JSON report.
+/// The CPU time includes the tool processes the build waited for (haxe, hxcpp, strip, gradlew) where the host
+/// exposes it, which is only linux. Elsewhere it is the time of the plugin itself. Processes that are not children
+/// of the build, like a running gradle daemon, only show up in the wall clock time.
+class PhaseTimer
+{
+	private static inline var REPORT_VERSION = 1;
+	/// the linux USER_HZ, the unit of the times in /proc
+	private static inline var CLOCK_TICKS_PER_SECOND = 100;
+
+	private var phases : Array<PhaseTiming> = [];
+	private var stack : Array<String> = [];
+
+	public function new() {}
+
+	public function measure(name : String, phase : Void -> Void) : Void
+	{
+		stack.push(name);
+		var fullName = stack.join(".");
+
+		var timing = {name : fullName, wall : 0.0, cpu : 0.0};
+		/// in start order, so that the report reads top down
+		phases.push(timing);
+
+		var wallStart = haxe.Timer.stamp();
+		var cpuStart = getCPUTime();
+
+		phase();
+
+		timing.wall = haxe.Timer.stamp() - wallStart;
+		timing.cpu = getCPUTime() - cpuStart;
+		stack.pop();
+	}
+
+	public function getPhases() : Array<PhaseTiming>
+	{
+		return phases;
+	}
+
+	public function writeReport(path : String) : Void
+	{
+		PathHelper.mkdir(Path.directory(path));
+
+		var report = {
+			version : REPORT_VERSION,
+			date : Date.now().toString(),
+			host : Std.string(PlatformHelper.hostPlatform),
+			phases : phases
+		};
+
+		File.saveContent(path, haxe.Json.stringify(report, null, "    "));
+		LogHelper.info("Build timings written to " + path);
+	}
+
+	/// Returns a message for every phase that took more than threshold (0.2 is 20%) longer than in the baseline
+	/// report. Phases under minimumSeconds in the baseline are skipped, their relative noise is too large.
+	public function compare(baselinePath : String, threshold : Float, minimumSeconds : Float) : Array<String>
+	{
+		if (!FileSystem.exists(baselinePath))
+			throw "Build timing baseline not found: " + baselinePath;
+
+		var baseline : Array<PhaseTiming> = haxe.Json.parse(File.getContent(baselinePath)).phases;
+		var current = new Map<String, PhaseTiming>();
+		for (phase in phases)
+			current.set(phase.name, phase);
+
+		var regressions = [];
+
+		for (baselinePhase in baseline)
+		{
+			var phase = current.get(baselinePhase.name);
+
+			if (phase == null || baselinePhase.wall < minimumSeconds)
+				continue;
+
+			if (phase.wall > baselinePhase.wall * (1 + threshold))
+			{
+				regressions.push('${phase.name}: ${format(phase.wall)} instead of ${format(baselinePhase.wall)}');
+			}
+		}
+
+		return regressions;
+	}
+
+	private static function getCPUTime() : Float
+	{
+		return Sys.cpuTime() + getChildrenCPUTime();
+	}
+
+	/// user and system time of the terminated child processes that were waited for, from /proc/self/stat
+	private static function getChildrenCPUTime() : Float
+	{
+		if (PlatformHelper.hostPlatform != Platform.LINUX || !FileSystem.exists("/proc/self/stat"))
+			return 0;
+
+		try
+		{
+			/// the process name can contain spaces, the fields after it are fixed
+			var stat = File.getContent("/proc/self/stat");
+			var fields = stat.substr(stat.lastIndexOf(")") + 2).split(" ");
+
+			/// cutime and cstime are the fields 16 and 17, the state after the name is field 3
+			return (Std.parseFloat(fields[13]) + Std.parseFloat(fields[14])) / CLOCK_TICKS_PER_SECOND;
+		}
+		catch (error : Dynamic)
+		{
+			return 0;
+		}
+	}
+
+	private static function format(seconds : Float) : String
+	{
+		return (Math.round(seconds * 10) / 10) + "s";
+	}
+}
@@ -48,13 +48,45 @@ import duell.objects.Arguments;
 import duell.objects.SemVer;
 
 import duell.build.helpers.Emulator;
+import duell.build.helpers.ElfReader;
+import duell.build.helpers.ParallelProcessRunner;
+import duell.build.helpers.BuildCache;
+import duell.build.helpers.FileSync;
+import duell.build.helpers.PhaseTimer;
+import duell.build.helpers.LogcatProcessor;
 
 import sys.FileSystem;
 import sys.io.File;
 import haxe.io.Path;
+import haxe.crypto.Md5;
 
 using StringTools;
 
+/// one device of a -test run, its listener writes to resultPath
+typedef TestShard = {
+    serial : String,
+    index : Int,
+    port : Int,
+    resultPath : String,
+    started : Bool,
+    finished : Bool,
+    failure : String
+}
+
+typedef FastDeployEntry = {
+    hash : String,
+    size : Int,
+    time : Int
+}
+
+typedef StripManifestEntry = {
+    inputHash : String,
+    inputSize : Int,
+    inputTime : Int,
+    outputSize : Int,
+    outputTime : Int
+}
+
 class PlatformBuild
 {
     public var requiredSetups = [{name: "android", version: "6.0.1"}];
@@ -62,32 +94,67 @@ class PlatformBuild
     private static inline var TEST_RESULT_FILENAME = "test_result_android.xml";
     private static inline var DEFAULT_ARMV7_EMULATOR = "duellarmv7";
     private static inline var DEFAULT_X86_EMULATOR = "duellx86";
-    private static inline var DELAY_BETWEEN_PYTHON_LISTENER_AND_RUNNING_THE_APP = 1;
+    private static inline var TEST_LISTENER_TIMEOUT = 300;
+    private static inline var TEST_LISTENER_STARTUP_TIMEOUT = 30;
+    private static inline var STRIP_MANIFEST_FILENAME = "strip_manifest.txt";
+    private static inline var SYMBOL_MAP_FILENAME = "symbol_map.json";
+    private static inline var DEFAULT_STRIP_JOBS = 8;
+    private static inline var GRADLE_TIMINGS_FILENAME = "gradle_timings.txt";
+    private static inline var GRADLE_SLOWEST_TASKS = 5;
+    private static inline var DEFAULT_DAEMON_GRADLE_JVM_ARGS = "-Xmx3072m -XX:+HeapDumpOnOutOfMemoryError -Dfile.encoding=UTF-8";
+    private static inline var TIMINGS_REPORT_FILENAME = "build_timings.json";
+    private static inline var DEFAULT_TIMING_THRESHOLD_PERCENT = 20;
+    /// shorter phases vary too much between runs to be compared with a baseline
+    private static inline var MINIMUM_COMPARED_PHASE_SECONDS = 0.5;
+    private static inline var STARTUP_ORDER_RECORDING_PATH = "files/duell_startup_order.txt";
+    /// the recorder in the app writes its file 10 seconds after the start
+    private static inline var STARTUP_ORDER_RECORDING_TIMEOUT = 60;
+    /// in the data folder of the app, read by FastDeploy.java
+    private static inline var FAST_DEPLOY_DEVICE_PATH = "files/duell_fastdeploy";
+    private static inline var FAST_DEPLOY_TEMPORARY_PATH = "/data/local/tmp/duell_fastdeploy";
+    private static inline var FAST_DEPLOY_APK_ENTRY = "apk";
+    private static var LOGCAT_TAGS = ["duell", "Main", "DuellActivity", "GLThread", "trace"];
+    /// the app may still be starting when logcat starts
+    private static inline var LOGCAT_PID_ATTEMPTS = 10;
+    private static var NATIVE_SOURCE_EXTENSIONS = ["hx", "xml", "c", "cc", "cpp", "cxx", "h", "hpp", "hxx", "inl", "s", "mm"];
+    /// files under the class paths that macros commonly read, which haxe does not report as inputs
+    private static var MACRO_INPUT_EXTENSIONS = ["json", "txt", "csv", "yaml", "yml", "ini", "properties", "glsl", "vert", "frag"];
+    private static var HAXE_STD_FALLBACK_PATHS = ["/usr/local/lib/haxe/std", "/usr/lib/haxe/std", "/usr/share/haxe/std"];
 
     /// VARIABLES SET AFTER PARSING
     var targetDirectory : String;
     var publishDirectory : String;
     var libsWithSymbolsDirectory : String;
     var projectDirectory : String;
+    var projectStagingDirectory : String;
+    /// the staging folder and the untemplated inputs, in the order in which they override each other
+    var projectSyncSources : Array<FileSyncSource> = [];
+    var phaseTimer : PhaseTimer = new PhaseTimer();
     var duellBuildAndroidPath : String;
     var fullTestResultPath : String;
     var isDebug : Bool = false;
+    var isRecordingStartupOrder : Bool = false;
+    var isFastDeploy : Bool = false;
     var isNDKGDB : Bool = false;
     var isVerbose : Bool = false;
     var isBuildNDLL : Bool = true;
     var isFullLogcat : Bool = false;
     var isClean : Bool = false;
     var isEmulator : Bool = false;
+    var isHaxeOutputArchIndependent : Bool = true;
     var emulatorName : Null<String> = null;
     var emulatorArch : EmulatorArchitecture = null;
 
     var	adbPath : String;
     var	androidPath : String;
     var	emulatorPath : String;
+    var	buildToolsPath : String;
     var antPath : String;
 
+    var buildCache : BuildCache = null;
+
     var emulator: Emulator = null;
-    var logcatProcess: DuellProcess = null; /// will block here if emulator is not running.
+    var logcatProcess: sys.io.Process = null; /// will block here if emulator is not running.
 
     public function new() : Void {}
 
@@ -130,8 +197,15 @@ class PlatformBuild
         Configuration.getData().PLATFORM.NDK_PATH = defines.get("ANDROID_NDK_ROOT");
 
         adbPath = Path.join([defines.get("ANDROID_SDK"), "platform-tools"]);
+
+        /// e.g. a stand-in that records the commands, to try the deployment without a device
+        if (Arguments.isSet("-adbpath"))
+        {
+            adbPath = Arguments.get("-adbpath");
+        }
         androidPath = Path.join([defines.get("ANDROID_SDK"), "tools"]);
         emulatorPath = Path.join([defines.get("ANDROID_SDK"), "tools"]);
+        buildToolsPath = Path.join([defines.get("ANDROID_SDK"), "build-tools"]);
         antPath = defines.get("ANT_HOME");
     }
 
@@ -157,6 +231,28 @@ class PlatformBuild
             Configuration.getData().PLATFORM.PROGUARD_ENABLED = true;
         }
 
+        if (Arguments.isSet("-recordstartuporder"))
+        {
+            /// the recording is read from the data folder of the app with run-as
+            if (!isDebug)
+            {
+                throw "-recordstartuporder needs a debug build, add -debug";
+            }
+
+            isRecordingStartupOrder = true;
+        }
+
+        if (Arguments.isSet("-fastdeploy"))
+        {
+            /// the files are copied into the data folder of the app with run-as
+            if (!isDebug)
+            {
+                throw "-fastdeploy needs a debug build, add -debug";
+            }
+
+            isFastDeploy = true;
+        }
+
         var isArmv6 = Arguments.isSet("-armv6");
         var isArmv7 = Arguments.isSet("-armv7");
         var isX86 = Arguments.isSet("-x86");
@@ -224,24 +320,30 @@ class PlatformBuild
 
     public function prepareBuild()
     {
-        prepareVariablesPostParse();
+        phaseTimer.measure("prepareBuild", function()
+        {
+            phaseTimer.measure("prepareVariablesPostParse", prepareVariablesPostParse);
+
+            /// Additional Configuration
+            phaseTimer.measure("startEmulator", startEmulator);
+            phaseTimer.measure("addHXCPPLibs", addHXCPPLibs);
+            phaseTimer.measure("convertDuellAndHaxelibsIntoHaxeCompilationFlags", convertDuellAndHaxelibsIntoHaxeCompilationFlags);
+            phaseTimer.measure("convertParsingDefinesToCompilationDefines", convertParsingDefinesToCompilationDefines);
+            phaseTimer.measure("forceDeprecationWarnings", forceDeprecationWarnings);
+            phaseTimer.measure("forceCPP11", forceCPP11);
+            phaseTimer.measure("gatherProguardConfigs", gatherProguardConfigs);
+            phaseTimer.measure("cleanUpDuplicatedGradleDependencies", cleanUpDuplicatedGradleDependencies);
 
-        /// Additional Configuration
-        startEmulator();
-        addHXCPPLibs();
-        convertDuellAndHaxelibsIntoHaxeCompilationFlags();
-        convertParsingDefinesToCompilationDefines();
-        forceDeprecationWarnings();
-        forceCPP11();
-        gatherProguardConfigs();
-        cleanUpDuplicatedGradleDependencies();
+            if (isDebug)
+                phaseTimer.measure("addDebuggingInformation", addDebuggingInformation);
 
-        if (isDebug)
-            addDebuggingInformation();
+            if (PlatformConfiguration.getData().UNCOMPRESSED_NATIVE_LIBS)
+                phaseTimer.measure("addUncompressedNativeLibs", addUncompressedNativeLibs);
 
-        convertArchsToArchABIs();
+            phaseTimer.measure("convertArchsToArchABIs", convertArchsToArchABIs);
 
-        prepareAndroidBuild();
+            phaseTimer.measure("prepareAndroidBuild", prepareAndroidBuild);
+        });
     }
 
     private function prepareVariablesPostParse()
@@ -252,7 +354,15 @@ class PlatformBuild
         publishDirectory = Path.join([Configuration.getData().PUBLISH, "android"]);
         fullTestResultPath = Path.join([Configuration.getData().OUTPUT, "test", TEST_RESULT_FILENAME]);
         projectDirectory = Path.join([targetDirectory, Configuration.getData().APP.FILE]);
+        projectStagingDirectory = Path.join([targetDirectory, "staging", Configuration.getData().APP.FILE]);
         duellBuildAndroidPath = DuellLib.getDuellLib("duellbuildandroid").getPath();
+
+        /// without a daemon, JVM arguments that differ from the ones of the gradle client make gradle fork a second
+        /// JVM for every build, so the default build leaves them to gradle and dexes in its own process
+        if (PlatformConfiguration.getData().GRADLE_JVM_ARGS == null && Arguments.isSet("-fastgradle"))
+        {
+            PlatformConfiguration.getData().GRADLE_JVM_ARGS = DEFAULT_DAEMON_GRADLE_JVM_ARGS;
+        }
     }
 
     private function gatherProguardConfigs()
@@ -386,6 +496,12 @@ class PlatformBuild
         Configuration.getData().PLATFORM.DEBUG = true;
     }
 
+    /// the libraries are loaded straight from the apk instead of being extracted at install time
+    private function addUncompressedNativeLibs()
+    {
+        Configuration.getData().PLATFORM.APPLICATION_PARAMETERS.push({NAME : "extractNativeLibs", VALUE : "false"});
+    }
+
     private function convertArchsToArchABIs()
     {
         for (arch in Configuration.getData().PLATFORM.ARCHS)
@@ -411,17 +527,35 @@ class PlatformBuild
 
     private function prepareAndroidBuild() : Void
     {
-        createDirectoriesAndCopyTemplates();
-        handleIcons();
-        handleNDLLs();
-        handleJavaSources();
-        handleJars();
+        /// the ndlls go first, the activity template needs their load order
+        phaseTimer.measure("handleNDLLs", handleNDLLs);
+        phaseTimer.measure("resolveNDLLLoadOrder", resolveNDLLLoadOrder);
+        phaseTimer.measure("detectArchSpecificHaxeCode", detectArchSpecificHaxeCode);
+
+        /// The templated project files are rendered into a staging folder, and then only the changes go to the project.
+        /// Icons, jars and plain java files are synced into the project straight from where they are.
+        if (FileSystem.exists(projectStagingDirectory))
+            PathHelper.removeDirectory(projectStagingDirectory);
+        PathHelper.mkdir(projectStagingDirectory);
+
+        /// only the staging files are generated by the build and can be hardlinked, the files of the user are copied
+        projectSyncSources = [{path : projectStagingDirectory, allowHardlinks : true}];
+
+        phaseTimer.measure("createDirectoriesAndCopyTemplates", createDirectoriesAndCopyTemplates);
+        phaseTimer.measure("handleIcons", handleIcons);
+        phaseTimer.measure("handleJavaSources", handleJavaSources);
+        phaseTimer.measure("handleJars", handleJars);
+
+        phaseTimer.measure("syncProject", function()
+        {
+            FileSync.syncAll(projectSyncSources, projectDirectory, {manifest : Path.join([targetDirectory, "staging", "synced_files.txt"])});
+        });
     }
 
     private function createDirectoriesAndCopyTemplates() : Void
     {
         var packageDirectory = Configuration.getData().APP.PACKAGE;
-        packageDirectory = Path.join([projectDirectory, "src"].concat(packageDirectory.split(".")));
+        packageDirectory = Path.join([projectStagingDirectory, "src"].concat(packageDirectory.split(".")));
         PathHelper.mkdir(packageDirectory);
 
         var originMainActivity = Path.join([duellBuildAndroidPath, "template", "android", "MainActivity.java"]);
@@ -429,10 +563,30 @@ class PlatformBuild
         TemplateHelper.copyTemplateFile(originMainActivity, destMainActivity, Configuration.getData(), Configuration.getData().TEMPLATE_FUNCTIONS);
 
         var originProjectTemplate = Path.join([duellBuildAndroidPath, "template", "android", "template"]);
-        var destProjectTemplate = projectDirectory;
+        var destProjectTemplate = projectStagingDirectory;
 
         TemplateHelper.recursiveCopyTemplatedFiles(originProjectTemplate, destProjectTemplate, Configuration.getData(), Configuration.getData().TEMPLATE_FUNCTIONS);
 
+        var originHaxeTemplate = Path.join([duellBuildAndroidPath, "template", "android", "haxe", "Build.hxml"]);
+        var haxeBuildfileDirectory = Path.join([targetDirectory, "haxe"]);
+        PathHelper.mkdir(haxeBuildfileDirectory);
+
+        /// the fast command picks the mode from the hxml files that are left
+        for (file in FileSystem.readDirectory(haxeBuildfileDirectory))
+        {
+            if (file.startsWith("Build") && file.endsWith(".hxml"))
+                FileSystem.deleteFile(Path.join([haxeBuildfileDirectory, file]));
+        }
+
+        /// one generation for all archs, the arch defines are only passed to hxcpp
+        if (isHaxeOutputArchIndependent)
+        {
+            Configuration.getData().PLATFORM.HAXE_BUILD_FOLDER = "build";
+            var destHaxeTemplate = Path.join([haxeBuildfileDirectory, "Build.hxml"]);
+            TemplateHelper.copyTemplateFile(originHaxeTemplate, destHaxeTemplate, Configuration.getData(), Configuration.getData().TEMPLATE_FUNCTIONS);
+            return;
+        }
+
         for (arch in Configuration.getData().PLATFORM.ARCHS)
         {
             switch (arch)
@@ -447,15 +601,53 @@ class PlatformBuild
                     Configuration.getData().HAXE_COMPILE_ARGS.push("-D HXCPP_ARM64");
             }
 
-            var originHaxeTemplate = Path.join([duellBuildAndroidPath, "template", "android", "haxe", "Build.hxml"]);
-            var haxeBuildfileDirectory = Path.join([targetDirectory, "haxe"]);
-            PathHelper.mkdir(haxeBuildfileDirectory);
+            /// separate output folders, so that the archs can be compiled at the same time
+            Configuration.getData().PLATFORM.HAXE_BUILD_FOLDER = 'build-$arch';
             var destHaxeTemplate = Path.join([haxeBuildfileDirectory, 'Build-$arch.hxml']);
             TemplateHelper.copyTemplateFile(originHaxeTemplate, destHaxeTemplate, Configuration.getData(), Configuration.getData().TEMPLATE_FUNCTIONS);
             Configuration.getData().HAXE_COMPILE_ARGS.pop();
         }
     }
 
+    /// the generated c++ only differs between archs if the haxe code checks the arch defines
+    private function detectArchSpecificHaxeCode()
+    {
+        var archDefine = ~/\bHXCPP_(ARMV6|ARMV7|X86|ARM64|M64)\b/;
+
+        var classPaths = [];
+        for (arg in Configuration.getData().HAXE_COMPILE_ARGS)
+        {
+            if (arg.startsWith("-cp "))
+                classPaths.push(arg.substr(4).trim());
+        }
+
+        for (haxelib in Configuration.getData().DEPENDENCIES.HAXELIBS)
+        {
+            classPaths.push(Haxelib.getHaxelib(haxelib.name, haxelib.version).getPath());
+        }
+
+        for (classPath in classPaths)
+        {
+            if (!FileSystem.exists(classPath) || !FileSystem.isDirectory(classPath))
+                continue;
+
+            for (file in PathHelper.getRecursiveFileListUnderFolder(classPath))
+            {
+                if (!file.endsWith(".hx"))
+                    continue;
+
+                if (archDefine.match(File.getContent(Path.join([classPath, file]))))
+                {
+                    LogHelper.info('$file in $classPath checks an arch define, generating the c++ code per arch');
+                    isHaxeOutputArchIndependent = false;
+                    return;
+                }
+            }
+        }
+
+        isHaxeOutputArchIndependent = true;
+    }
+
     private function handleIcons()
     {
         if (!FileSystem.exists(PlatformConfiguration.getData().ICON_PATH))
@@ -469,9 +661,6 @@ class PlatformBuild
         for (iconType in iconTypes)
         {
             var iconOriginPath = haxe.io.Path.join([PlatformConfiguration.getData().ICON_PATH, 'drawable-$iconType']);
-            var iconDestinationPath = haxe.io.Path.join([projectDirectory, "res", 'drawable-$iconType']);
-
-            PathHelper.mkdir(iconDestinationPath);
 
             if (!FileSystem.exists(iconOriginPath))
             {
@@ -479,13 +668,16 @@ class PlatformBuild
                 continue;
             }
 
-            FileHelper.recursiveCopyFiles(iconOriginPath, iconDestinationPath);
+            projectSyncSources.push({path : iconOriginPath, target : Path.join(["res", 'drawable-$iconType'])});
         }
     }
 
 
     private function handleNDLLs()
     {
+        /// the same ndll is built for every architecture, its sources are hashed once
+        var ndllInputHashes = new Map<String, String>();
+
         for (archID in 0...3)
         {
             var arch = ["armv6", "armv7", "x86", "arm64"][archID];
@@ -521,6 +713,22 @@ class PlatformBuild
 
             for (ndll in Configuration.getData().NDLLS)
             {
+                var cache = getBuildCache();
+                var cacheKey = null;
+                var cachedFiles = [{name : "lib" + ndll.NAME + ".so", path : Path.join([destFolderArch, "lib" + ndll.NAME + ".so"])}];
+
+                if (isBuildNDLL && cache != null)
+                {
+                    if (!ndllInputHashes.exists(ndll.BUILD_FILE_PATH))
+                        ndllInputHashes.set(ndll.BUILD_FILE_PATH, hashNDLLInputs(cache, ndll.BUILD_FILE_PATH));
+
+                    cacheKey = cache.makeKey(["ndll", ndll.NAME, ndll.BUILD_FILE_PATH, ndllInputHashes.get(ndll.BUILD_FILE_PATH),
+                                              argsForBuild.join(" "), Configuration.getData().PLATFORM.NDK_PATH, folderName]);
+
+                    if (cache.restore(cacheKey, 'ndll ${ndll.NAME} ($arch)', cachedFiles))
+                        continue;
+                }
+
                 if (isBuildNDLL)
                 {
                     var result = CommandHelper.runHaxelib(Path.directory(ndll.BUILD_FILE_PATH), ["run", "hxcpp", Path.withoutDirectory(ndll.BUILD_FILE_PATH)].concat(argsForBuild), {errorMessage: "building ndll"});
@@ -530,8 +738,219 @@ class PlatformBuild
                 }
 
                 copyNDLL(ndll, folderName, argsForBuild, extension);
+
+                if (cacheKey != null)
+                    cache.store(cacheKey, cachedFiles);
+            }
+        }
+
+        if (getBuildCache() != null)
+            getBuildCache().save();
+    }
+
+    /// the whole haxelib the build file belongs to, the files and folders outside of it that the build file and the
+    /// build files it includes reference, and the hxcpp version that builds them
+    private function hashNDLLInputs(cache : BuildCache, buildFilePath : String) : String
+    {
+        var hxcppPath = Haxelib.getHaxelib("hxcpp").getPath();
+        var root = getHaxelibRoot(Path.directory(buildFilePath));
+        var inputs = [hxcppPath + " " + getHaxelibVersion(hxcppPath), root + "=" + cache.hashDirectory(root, NATIVE_SOURCE_EXTENSIONS)];
+
+        var references = [];
+        collectBuildFileReferences(buildFilePath, references);
+
+        /// the folders in the haxelib and its sources are already part of the hash, prebuilt libraries are not
+        var fullRoot = FileSystem.fullPath(root);
+        references = references.filter(function(reference)
+            return !(reference == fullRoot || reference.startsWith(Path.addTrailingSlash(fullRoot)) &&
+                     (FileSystem.isDirectory(reference) || NATIVE_SOURCE_EXTENSIONS.indexOf(Path.extension(reference).toLowerCase()) != -1)));
+        references.sort(Reflect.compare);
+
+        for (reference in references)
+        {
+            if (FileSystem.isDirectory(reference))
+                inputs.push(reference + "=" + cache.hashDirectory(reference, NATIVE_SOURCE_EXTENSIONS));
+            else
+                inputs.push(reference + "=" + cache.hashFile(reference));
+        }
+
+        return cache.makeKey(inputs);
+    }
+
+    /// the closest folder with a haxelib.json, or the folder itself if there is none
+    private static function getHaxelibRoot(folder : String) : String
+    {
+        var current = FileSystem.fullPath(folder);
+
+        while (current != null && current != "" && current != "/")
+        {
+            if (FileSystem.exists(Path.join([current, "haxelib.json"])))
+                return current;
+
+            var parent = Path.directory(current);
+            if (parent == current)
+                break;
+
+            current = parent;
+        }
+
+        return folder;
+    }
+
+    /// existing files and folders named by the dir, name and -I attributes of the build file, the included build files
+    /// are followed. Paths with variables other than ${this_dir} are left out, they point into hxcpp or the ndk.
+    private static function collectBuildFileReferences(buildFilePath : String, references : Array<String>) : Void
+    {
+        var fullPath = FileSystem.fullPath(buildFilePath);
+        if (references.indexOf(fullPath) != -1)
+            return;
+
+        references.push(fullPath);
+
+        var xml;
+        try
+        {
+            xml = Xml.parse(File.getContent(fullPath)).firstElement();
+        }
+        catch (error : Dynamic)
+        {
+            LogHelper.info('Could not read $fullPath for the build cache key, only its haxelib is hashed');
+            return;
+        }
+
+        collectElementReferences(xml, Path.directory(fullPath), Path.directory(fullPath), references);
+    }
+
+    private static function collectElementReferences(element : Xml, baseDirectory : String, buildFileDirectory : String,
+                                                     references : Array<String>) : Void
+    {
+        for (child in element.elements())
+        {
+            var childBaseDirectory = baseDirectory;
+
+            for (attribute in ["dir", "name", "value"])
+            {
+                if (!child.exists(attribute))
+                    continue;
+
+                var value = child.get(attribute).trim();
+                if (attribute == "value")
+                {
+                    if (!value.startsWith("-I"))
+                        continue;
+
+                    value = value.substr(2);
+                }
+
+                value = value.replace("${this_dir}", buildFileDirectory);
+                if (value == "" || value.indexOf("$") != -1 || (Path.isAbsolute(value) && !value.startsWith(buildFileDirectory)))
+                    continue;
+
+                var path = Path.normalize(Path.isAbsolute(value) ? value : Path.join([baseDirectory, value]));
+                if (!FileSystem.exists(path))
+                    continue;
+
+                path = FileSystem.fullPath(path);
+
+                if (child.nodeName == "include")
+                    collectBuildFileReferences(path, references);
+                else if (references.indexOf(path) == -1)
+                    references.push(path);
+
+                /// the files of a <files dir="..."> group are relative to that folder
+                if (child.nodeName == "files" && attribute == "dir")
+                    childBaseDirectory = path;
+            }
+
+            collectElementReferences(child, childBaseDirectory, buildFileDirectory, references);
+        }
+    }
+
+    /// null if the cache is disabled with <build-cache-size value="0"/> or -nobuildcache
+    private function getBuildCache() : BuildCache
+    {
+        if (buildCache == null && !Arguments.isSet("-nobuildcache") && PlatformConfiguration.getData().BUILD_CACHE_SIZE_MB > 0)
+        {
+            var cacheLocation = Path.join([DuellConfigHelper.getDuellConfigFolderLocation(), "androidbuildcache"]);
+            buildCache = new BuildCache(cacheLocation, PlatformConfiguration.getData().BUILD_CACHE_SIZE_MB * 1024.0 * 1024.0);
+        }
+
+        return buildCache;
+    }
+
+    /// orders the ndlls so that every ndll comes after the ndlls it links against (DT_NEEDED),
+    /// the activity then loads them in that order on a background thread.
+    private function resolveNDLLLoadOrder()
+    {
+        var ndllNames = [];
+        for (ndll in Configuration.getData().NDLLS)
+        {
+            if (ndllNames.indexOf(ndll.NAME) == -1)
+                ndllNames.push(ndll.NAME);
+        }
+
+        var dependencies = new Map<String, Array<String>>();
+
+        var folderName = null;
+        for (archID in 0...4)
+        {
+            if (Configuration.getData().PLATFORM.ARCHS.indexOf(["armv6", "armv7", "x86", "arm64"][archID]) != -1)
+            {
+                folderName = ["armeabi", "armeabi-v7a", "x86", "arm64-v8a"][archID];
+                break;
+            }
+        }
+
+        for (name in ndllNames)
+        {
+            var ndllDependencies = [];
+
+            if (folderName != null)
+            {
+                var lib = Path.join([libsWithSymbolsDirectory, folderName, "lib" + name + ".so"]);
+
+                for (needed in ElfReader.getNeededLibraries(lib))
+                {
+                    for (other in ndllNames)
+                    {
+                        if (other != name && needed == "lib" + other + ".so" && ndllDependencies.indexOf(other) == -1)
+                        {
+                            ndllDependencies.push(other);
+                        }
+                    }
+                }
+            }
+
+            dependencies.set(name, ndllDependencies);
+        }
+
+        var loadOrder = [];
+        var ordered = [];
+
+        while (ordered.length < ndllNames.length)
+        {
+            var progress = false;
+
+            for (name in ndllNames)
+            {
+                if (ordered.indexOf(name) != -1)
+                    continue;
+
+                if (Lambda.foreach(dependencies.get(name), function(dependency) return ordered.indexOf(dependency) != -1))
+                {
+                    ordered.push(name);
+                    loadOrder.push({NAME : name, DEPENDENCIES : dependencies.get(name)});
+                    progress = true;
+                }
+            }
+
+            if (!progress)
+            {
+                throw "Cyclic dependencies between the ndlls " + ndllNames.filter(function(name) return ordered.indexOf(name) == -1).join(", ");
             }
         }
+
+        Configuration.getData().PLATFORM.NDLL_LOAD_ORDER = loadOrder;
     }
 
     private function copyNDLL(ndll : {NAME:String, BIN_PATH:String, BUILD_FILE_PATH:String, REGISTER_STATICS:Bool, DEBUG_SUFFIX:Bool},
@@ -607,7 +1026,7 @@ class PlatformBuild
                 throw "Invalid Jar path " + jar;
             }
 
-            FileHelper.copyIfNewer(jar, Path.join([projectDirectory, "libs", Path.withoutDirectory(jar)]));
+            projectSyncSources.push({path : jar, target : Path.join(["libs", Path.withoutDirectory(jar)])});
         }
     }
 
@@ -622,11 +1041,11 @@ class PlatformBuild
 
             if (FileSystem.isDirectory(javaSource.PATH))
             {
-                TemplateHelper.recursiveCopyTemplatedFiles(javaSource.PATH, Path.join([projectDirectory, "src"]), Configuration.getData(), Configuration.getData().TEMPLATE_FUNCTIONS);
+                TemplateHelper.recursiveCopyTemplatedFiles(javaSource.PATH, Path.join([projectStagingDirectory, "src"]), Configuration.getData(), Configuration.getData().TEMPLATE_FUNCTIONS);
             }
             else
             {
-                FileHelper.copyIfNewer(javaSource.PATH, Path.join([projectDirectory, "src", Path.withoutDirectory(javaSource.PATH)]));
+                projectSyncSources.push({path : javaSource.PATH, target : Path.join(["src", Path.withoutDirectory(javaSource.PATH)])});
             }
         }
     }
@@ -677,15 +1096,57 @@ class PlatformBuild
 
     public function build()
     {
-        buildHaxe();
-        clearPreviousLibs();
-        copyLibs();
-        stripSymbols();
-        runGradle();
+        phaseTimer.measure("build", function()
+        {
+            phaseTimer.measure("buildHaxe", buildHaxe);
+            phaseTimer.measure("clearPreviousLibs", clearPreviousLibs);
+            phaseTimer.measure("copyLibs", copyLibs);
+            phaseTimer.measure("stripSymbols", stripSymbols);
+            phaseTimer.measure("runGradle", runGradle);
+
+            if (PlatformConfiguration.getData().UNCOMPRESSED_NATIVE_LIBS)
+                phaseTimer.measure("verifyNativeLibAlignment", verifyNativeLibAlignment);
+        });
+
+        if (buildCache != null)
+            buildCache.report();
+
+        reportBuildTimings();
+    }
+
+    private function reportBuildTimings()
+    {
+        phaseTimer.writeReport(Path.join([targetDirectory, TIMINGS_REPORT_FILENAME]));
+
+        if (!Arguments.isSet("-timingbaseline"))
+            return;
+
+        var threshold = DEFAULT_TIMING_THRESHOLD_PERCENT;
+        if (Arguments.isSet("-timingthreshold"))
+        {
+            threshold = Std.parseInt(Arguments.get("-timingthreshold"));
+        }
+
+        var regressions = phaseTimer.compare(Arguments.get("-timingbaseline"), threshold / 100, MINIMUM_COMPARED_PHASE_SECONDS);
+
+        if (regressions.length > 0)
+        {
+            throw 'Build phases are more than $threshold% slower than the baseline:\n    ' + regressions.join("\n    ");
+        }
     }
 
+    /// the haxe code is generated once if possible, then hxcpp compiles the archs in parallel
     private function buildHaxe()
     {
+        var haxeJobs : Array<ParallelProcessJob> = [];
+        var hxcppJobs : Array<ParallelProcessJob> = [];
+        var libCopies : Array<{lib : String, dest : String}> = [];
+
+        isHaxeOutputArchIndependent = FileSystem.exists(Path.join([targetDirectory, "haxe", "Build.hxml"]));
+
+        var cache = getBuildCache();
+        var cacheStores : Array<{key : String, files : Array<{name : String, path : String}>}> = [];
+        var haxeInputsHash = cache != null ? hashHaxeInputs(cache) : null;
 
         for (archID in 0...3)
         {
@@ -749,94 +1210,443 @@ class PlatformBuild
             }
 
 
-            CommandHelper.runHaxe(Path.join([targetDirectory, "haxe"]), ['Build-$arch.hxml'], {errorMessage: "compiling the haxe code into c++"});
-            CommandHelper.runHaxelib(Path.join([targetDirectory, "haxe", "build"]), ["run", "hxcpp", "Build.xml"].concat(argsForBuildCpp), {errorMessage: "compiling the generated c++ code"});
+            var buildFolder = isHaxeOutputArchIndependent ? "build" : 'build-$arch';
+            var hxmlName = isHaxeOutputArchIndependent ? "Build.hxml" : 'Build-$arch.hxml';
 
-            var lib = Path.join([targetDirectory, "haxe", "build", "lib" + Configuration.getData().MAIN + (isDebug ? "-debug" : "") + extension]);
+            var lib = Path.join([targetDirectory, "haxe", buildFolder, "lib" + Configuration.getData().MAIN + (isDebug ? "-debug" : "") + extension]);
             var dest = Path.join([destFolderArch, "libHaxeApplication.so"]);
 
-            FileHelper.copyIfNewer(lib, dest);
-        }
-    }
-
-    private function clearPreviousLibs()
-    {
-        for (archID in 0...3)
-        {
-            var arch = ["armv6", "armv7", "x86", "arm64"][archID];
-            var folderName = ["armeabi", "armeabi-v7a", "x86", "arm64-v8a"][archID];
-            var destFolderArch = Path.join([projectDirectory, "native-libs", folderName]);
+            /// the wrapper includes the Build.xml that haxe generates and adds the ordering or the recording
+            var buildXml = "Build.xml";
+            var startupOrder = "";
 
-            /// clear if the architecture is not to be built now
-            if (Configuration.getData().PLATFORM.ARCHS.indexOf(arch) == -1)
+            if (isRecordingStartupOrder)
             {
-                if (FileSystem.exists(destFolderArch))
+                argsForBuildCpp.push("-DDUELL_STARTUP_ORDER_RECORD");
+                buildXml = copyStartupOrderTemplates(buildFolder);
+            }
+            else
+            {
+                var startupOrderFile = prepareStartupOrderFile(folderName, lib);
+
+                if (startupOrderFile != null)
                 {
-                    PathHelper.removeDirectory(destFolderArch);
+                    argsForBuildCpp.push("-DDUELL_STARTUP_ORDER_FILE=" + startupOrderFile);
+
+                    if (PlatformConfiguration.getData().STARTUP_ORDER_LINKER == "gold")
+                    {
+                        argsForBuildCpp.push("-DDUELL_STARTUP_ORDER_GOLD");
+                    }
+
+                    buildXml = copyStartupOrderTemplates(buildFolder);
+                    startupOrder = File.getContent(startupOrderFile);
                 }
+            }
 
-                continue;
+            if (cache != null)
+            {
+                var cacheKey = cache.makeKey(["haxe", haxeInputsHash, File.getContent(Path.join([targetDirectory, "haxe", hxmlName])),
+                                              argsForBuildCpp.join(" "), Configuration.getData().PLATFORM.NDK_PATH, folderName, Md5.encode(startupOrder)]);
+                var cachedFiles = [{name : "libHaxeApplication.so", path : dest}];
+
+                if (cache.restore(cacheKey, 'haxe ($arch)', cachedFiles))
+                    continue;
+
+                cacheStores.push({key : cacheKey, files : cachedFiles});
             }
-        }
-    }
 
-    private function copyLibs()
-    {
-        var finalPathOfLibs = Path.join([projectDirectory, "native-libs"]);
-        if (!FileSystem.exists(finalPathOfLibs))
-        {
-                PathHelper.mkdir(finalPathOfLibs);
+            if (!isHaxeOutputArchIndependent)
+            {
+                haxeJobs.push({name : arch, path : Path.join([targetDirectory, "haxe"]), command : "haxe",
+                               args : ['Build-$arch.hxml'], errorMessage : "compiling the haxe code into c++"});
+            }
+
+            hxcppJobs.push({name : arch, path : Path.join([targetDirectory, "haxe", buildFolder]), command : "haxelib",
+                            args : ["run", "hxcpp", buildXml].concat(argsForBuildCpp), errorMessage : "compiling the generated c++ code"});
+
+            libCopies.push({lib : lib, dest : dest});
         }
 
-        FileHelper.recursiveCopyFiles(libsWithSymbolsDirectory, finalPathOfLibs);
-    }
+        if (hxcppJobs.length == 0)
+        {
+            /// everything came from the cache
+            if (cache != null)
+                cache.save();
 
-    private function stripSymbols()
-    {
-        if (!Arguments.isSet("-stripsym"))
             return;
+        }
 
-        var finalPathOfLibs = Path.join([projectDirectory, "native-libs"]);
-        var host = "darwin-x86";
+        var jobs = PlatformConfiguration.getData().NATIVE_BUILD_JOBS;
+        if (jobs <= 0)
+            jobs = hxcppJobs.length;
 
-        if (PlatformHelper.hostPlatform == Platform.WINDOWS)
+        if (isHaxeOutputArchIndependent)
         {
-            host = "windows";
+            CommandHelper.runHaxe(Path.join([targetDirectory, "haxe"]), ["Build.hxml"], {errorMessage: "compiling the haxe code into c++"});
         }
-        else if(PlatformHelper.hostPlatform == Platform.LINUX)
+        else
         {
-            host = "linux-x86";
+            ParallelProcessRunner.run(haxeJobs, jobs);
         }
 
-        var ndkRoot = Configuration.getData().PLATFORM.NDK_PATH;
+        /// hxcpp keeps the objects of each arch in a separate obj folder, so sharing the build folder is fine
+        ParallelProcessRunner.run(hxcppJobs, jobs);
 
-        for (archID in 0...3)
+        for (copy in libCopies)
         {
-            var arch = ["armv6", "armv7", "x86", "arm64"][archID];
-            var toolchain = ["arm-linux-androideabi-4.8", "arm-linux-androideabi-4.8", "x86-4.8", "arm-linux-androideabi-4.8"] [archID];
-            var stripperExe = ["arm-linux-androideabi-strip", "arm-linux-androideabi-strip", "i686-linux-android-strip", "arm-linux-androideabi-strip"] [archID];
-            var folderName = ["armeabi", "armeabi-v7a", "x86", "arm64-v8a"][archID];
-
-            var basePathForExe = Path.join([ndkRoot, "toolchains", toolchain, "prebuilt", host, "bin"]);
+            FileHelper.copyIfNewer(copy.lib, copy.dest);
+        }
 
-            var abiPath = Path.join([finalPathOfLibs, folderName]);
+        if (cache != null)
+        {
+            for (cacheStore in cacheStores)
+            {
+                cache.store(cacheStore.key, cacheStore.files);
+            }
+
+            cache.save();
+        }
+    }
+
+    /// the haxe and native sources of all class paths, the haxe libraries and the hxcpp version that compiles them
+    private function hashHaxeInputs(cache : BuildCache) : String
+    {
+        var sourceExtensions = NATIVE_SOURCE_EXTENSIONS.concat(MACRO_INPUT_EXTENSIONS);
+        var hxcppPath = Haxelib.getHaxelib("hxcpp").getPath();
 
-            if (FileSystem.exists(abiPath))
+        /// an upgrade of haxe or hxcpp in place keeps the paths, so the versions and contents are part of the key
+        var inputs = ["haxe " + getHaxeVersion(),
+                      hxcppPath + " " + getHaxelibVersion(hxcppPath) + "=" + cache.hashDirectory(hxcppPath, NATIVE_SOURCE_EXTENSIONS)];
+
+        for (stdPath in getHaxeStdPaths())
+        {
+            inputs.push(stdPath + "=" + cache.hashDirectory(stdPath, ["hx"]));
+        }
+
+        for (arg in Configuration.getData().HAXE_COMPILE_ARGS)
+        {
+            if (arg.startsWith("-cp "))
+            {
+                var classPath = arg.substr(4).trim();
+                inputs.push(classPath + "=" + cache.hashDirectory(classPath, sourceExtensions));
+            }
+            else if (arg.startsWith("-resource "))
             {
-                var libsOfAbi = PathHelper.getRecursiveFileListUnderFolder(abiPath);
+                /// -resource file@name
+                var resource = arg.substr(10).trim().split("@")[0];
+                inputs.push(resource + "=" + (FileSystem.exists(resource) ? cache.hashFile(resource) : "missing"));
+            }
+        }
+
+        for (haxelib in Configuration.getData().DEPENDENCIES.HAXELIBS)
+        {
+            var haxelibPath = Haxelib.getHaxelib(haxelib.name, haxelib.version).getPath();
+            inputs.push(haxelibPath + "=" + cache.hashDirectory(haxelibPath, NATIVE_SOURCE_EXTENSIONS));
+        }
+
+        return cache.makeKey(inputs);
+    }
+
+    private static function getHaxeVersion() : String
+    {
+        /// haxe 3 prints the version to stderr, haxe 4 to stdout
+        var process = new sys.io.Process("haxe", ["-version"]);
+        var version = process.stdout.readAll().toString() + process.stderr.readAll().toString();
+        process.close();
+
+        return version.trim();
+    }
+
+    private static function getHaxelibVersion(haxelibPath : String) : String
+    {
+        var haxelibJson = Path.join([haxelibPath, "haxelib.json"]);
+        if (!FileSystem.exists(haxelibJson))
+        {
+            return "unknown";
+        }
+
+        return Std.string(haxe.Json.parse(File.getContent(haxelibJson)).version);
+    }
+
+    /// HAXE_STD_PATH if set, otherwise the std folder next to the haxe executable
+    private static function getHaxeStdPaths() : Array<String>
+    {
+        var separator = PlatformHelper.hostPlatform == Platform.WINDOWS ? ";" : ":";
+        var stdPathVariable = Sys.getEnv("HAXE_STD_PATH");
+
+        if (stdPathVariable != null && stdPathVariable.trim() != "")
+        {
+            return [for (stdPath in stdPathVariable.split(separator)) if (stdPath.trim() != "") stdPath.trim()];
+        }
+
+        var executable = PlatformHelper.hostPlatform == Platform.WINDOWS ? "haxe.exe" : "haxe";
+        var pathVariable = Sys.getEnv("PATH");
+
+        for (folder in (pathVariable != null ? pathVariable.split(separator) : []))
+        {
+            var haxePath = Path.join([folder, executable]);
+            if (!FileSystem.exists(haxePath))
+                continue;
+
+            /// resolves symlinks, e.g. from /usr/local/bin into the installation
+            var stdPath = Path.join([Path.directory(FileSystem.fullPath(haxePath)), "std"]);
+            if (FileSystem.exists(stdPath))
+            {
+                return [stdPath];
+            }
+
+            break;
+        }
+
+        for (stdPath in HAXE_STD_FALLBACK_PATHS)
+        {
+            if (FileSystem.exists(stdPath))
+            {
+                return [stdPath];
+            }
+        }
+
+        return [];
+    }
+
+    /// copies the hxcpp wrapper and the recorder next to the Build.xml that haxe generates, returns the wrapper name
+    private function copyStartupOrderTemplates(buildFolder : String) : String
+    {
+        var source = Path.join([duellBuildAndroidPath, "template", "android", "haxe"]);
+        var destination = Path.join([targetDirectory, "haxe", buildFolder]);
+
+        PathHelper.mkdir(destination);
 
-                for (lib in libsOfAbi)
+        for (file in ["StartupOrder.xml", "StartupOrderRecorder.cpp"])
+        {
+            FileHelper.copyIfNewer(Path.join([source, file]), Path.join([destination, file]));
+        }
+
+        return "StartupOrder.xml";
+    }
+
+    /// Converts the recorded function order of the abi into the format of the linker and returns its path, or null
+    /// if there is no order for the abi. A changed order removes the library, hxcpp would not link it again otherwise.
+    private function prepareStartupOrderFile(abi : String, lib : String) : String
+    {
+        var orderFolder = PlatformConfiguration.getData().STARTUP_ORDER_PATH;
+
+        if (orderFolder == null || !FileSystem.exists(Path.join([orderFolder, abi + ".txt"])))
+        {
+            return null;
+        }
+
+        /// gold orders input sections, which are named after the functions with -ffunction-sections, lld orders symbols
+        var isGold = PlatformConfiguration.getData().STARTUP_ORDER_LINKER == "gold";
+        var entries = [];
+
+        for (line in File.getContent(Path.join([orderFolder, abi + ".txt"])).split("\n"))
+        {
+            var symbol = line.trim();
+
+            if (symbol != "")
+            {
+                entries.push(isGold ? ".text." + symbol : symbol);
+            }
+        }
+
+        var orderFile = Path.join([targetDirectory, "haxe", 'startup_order-$abi.txt']);
+        var content = entries.join("\n") + "\n";
+
+        if (!FileSystem.exists(orderFile) || File.getContent(orderFile) != content)
+        {
+            File.saveContent(orderFile, content);
+
+            if (FileSystem.exists(lib))
+            {
+                FileSystem.deleteFile(lib);
+            }
+        }
+
+        return orderFile;
+    }
+
+    private function clearPreviousLibs()
+    {
+        for (archID in 0...3)
+        {
+            var arch = ["armv6", "armv7", "x86", "arm64"][archID];
+            var folderName = ["armeabi", "armeabi-v7a", "x86", "arm64-v8a"][archID];
+            var destFolderArch = Path.join([projectDirectory, "native-libs", folderName]);
+
+            /// clear if the architecture is not to be built now
+            if (Configuration.getData().PLATFORM.ARCHS.indexOf(arch) == -1)
+            {
+                if (FileSystem.exists(destFolderArch))
                 {
-                    var abi = Path.join([abiPath, lib]);
+                    PathHelper.removeDirectory(destFolderArch);
+                }
 
-                    if (abi.endsWith(".so"))
-                    {
-                        LogHelper.info("stripping symbols of " + abi);
-                        CommandHelper.runCommand(basePathForExe, stripperExe, [abi], {systemCommand:false});
-                    }
+                continue;
+            }
+        }
+    }
+
+    /// the libraries are hardlinked when possible, stripSymbols replaces them instead of writing into them
+    private function copyLibs()
+    {
+        var finalPathOfLibs = Path.join([projectDirectory, "native-libs"]);
+        if (!FileSystem.exists(finalPathOfLibs))
+        {
+                PathHelper.mkdir(finalPathOfLibs);
+        }
+
+        /// stripSymbols puts the stripped libraries there itself
+        var isStripping = Arguments.isSet("-stripsym");
+
+        FileSync.sync(libsWithSymbolsDirectory, finalPathOfLibs,
+                      {allowHardlinks : true, filter : function(file) return !isStripping || !file.endsWith(".so")});
+    }
+
+    private function stripSymbols()
+    {
+        if (!Arguments.isSet("-stripsym"))
+            return;
+
+        var finalPathOfLibs = Path.join([projectDirectory, "native-libs"]);
+        var host = "darwin-x86";
+
+        if (PlatformHelper.hostPlatform == Platform.WINDOWS)
+        {
+            host = "windows";
+        }
+        else if(PlatformHelper.hostPlatform == Platform.LINUX)
+        {
+            host = "linux-x86";
+        }
+
+        var ndkRoot = Configuration.getData().PLATFORM.NDK_PATH;
+
+        var manifestPath = Path.join([targetDirectory, STRIP_MANIFEST_FILENAME]);
+        var previousManifest = readStripManifest(manifestPath);
+        var manifest = new Map<String, StripManifestEntry>();
+
+        var jobs : Array<ParallelProcessJob> = [];
+        var installs : Array<{name : String, input : String, inputHash : String, strippedOutput : String, output : String}> = [];
+        var symbolMap = [];
+
+        for (archID in 0...3)
+        {
+            var arch = ["armv6", "armv7", "x86", "arm64"][archID];
+            var toolchain = ["arm-linux-androideabi-4.8", "arm-linux-androideabi-4.8", "x86-4.8", "arm-linux-androideabi-4.8"] [archID];
+            var stripperExe = ["arm-linux-androideabi-strip", "arm-linux-androideabi-strip", "i686-linux-android-strip", "arm-linux-androideabi-strip"] [archID];
+            var folderName = ["armeabi", "armeabi-v7a", "x86", "arm64-v8a"][archID];
+
+            var basePathForExe = Path.join([ndkRoot, "toolchains", toolchain, "prebuilt", host, "bin"]);
+
+            var abiPath = Path.join([finalPathOfLibs, folderName]);
+            var unstrippedAbiPath = Path.join([libsWithSymbolsDirectory, folderName]);
+
+            if (!FileSystem.exists(unstrippedAbiPath))
+                continue;
+
+            /// the unstripped libraries are the input, so stripping never runs on an already stripped file
+            for (lib in PathHelper.getRecursiveFileListUnderFolder(unstrippedAbiPath))
+            {
+                if (!lib.endsWith(".so"))
+                    continue;
+
+                var name = folderName + "/" + lib;
+                var input = Path.join([unstrippedAbiPath, lib]);
+                var output = Path.join([abiPath, lib]);
+
+                symbolMap.push({abi : folderName, library : lib, stripped : output, unstripped : input, buildId : ElfReader.getBuildId(input)});
+
+                var previous = previousManifest.get(name);
+                var inputHash = hashStripInput(input, previous);
+
+                if (previous != null && previous.inputHash == inputHash && FileSystem.exists(output) &&
+                    FileSystem.stat(output).size == previous.outputSize && Std.int(FileSystem.stat(output).mtime.getTime() / 1000) == previous.outputTime)
+                {
+                    LogHelper.info("symbols of " + output + " are already stripped");
+                    var inputStat = FileSystem.stat(input);
+                    manifest.set(name, {inputHash : inputHash,
+                                        inputSize : inputStat.size, inputTime : Std.int(inputStat.mtime.getTime() / 1000),
+                                        outputSize : previous.outputSize, outputTime : previous.outputTime});
+                    continue;
                 }
+
+                PathHelper.mkdir(Path.directory(output));
+                jobs.push({name : name, path : basePathForExe, command : stripperExe, args : ["-o", output + ".stripped", input],
+                           errorMessage : "stripping symbols", systemCommand : false});
+                installs.push({name : name, input : input, inputHash : inputHash, strippedOutput : output + ".stripped", output : output});
             }
         }
+
+        var parallel = PlatformConfiguration.getData().NATIVE_BUILD_JOBS;
+        ParallelProcessRunner.run(jobs, parallel > 0 ? parallel : DEFAULT_STRIP_JOBS);
+
+        for (install in installs)
+        {
+            /// replaced instead of overwritten, so that a hardlinked destination never changes its source
+            if (FileSystem.exists(install.output))
+                FileSystem.deleteFile(install.output);
+
+            FileSystem.rename(install.strippedOutput, install.output);
+
+            var inputStat = FileSystem.stat(install.input);
+            var outputStat = FileSystem.stat(install.output);
+            manifest.set(install.name, {inputHash : install.inputHash,
+                                        inputSize : inputStat.size, inputTime : Std.int(inputStat.mtime.getTime() / 1000),
+                                        outputSize : outputStat.size, outputTime : Std.int(outputStat.mtime.getTime() / 1000)});
+        }
+
+        writeStripManifest(manifestPath, manifest);
+
+        /// for symbolication of crash reports of the stripped libraries, next to and not inside libswithsym,
+        /// which is copied into the app
+        File.saveContent(Path.join([targetDirectory, SYMBOL_MAP_FILENAME]), haxe.Json.stringify(symbolMap, null, "    "));
+    }
+
+    /// the md5 of the library, taken from the manifest if size and modification time did not change
+    private function hashStripInput(input : String, previous : StripManifestEntry) : String
+    {
+        var stat = FileSystem.stat(input);
+
+        if (previous != null && previous.inputSize == stat.size && previous.inputTime == Std.int(stat.mtime.getTime() / 1000))
+            return previous.inputHash;
+
+        return Md5.make(File.getBytes(input)).toHex();
+    }
+
+    private function readStripManifest(path : String) : Map<String, StripManifestEntry>
+    {
+        var manifest = new Map<String, StripManifestEntry>();
+
+        if (!FileSystem.exists(path))
+            return manifest;
+
+        for (line in File.getContent(path).split("\n"))
+        {
+            var parts = line.split(" ");
+
+            if (parts.length < 6)
+                continue;
+
+            manifest.set(parts.slice(5).join(" "), {inputHash : parts[0],
+                                                    inputSize : Std.parseInt(parts[1]), inputTime : Std.parseInt(parts[2]),
+                                                    outputSize : Std.parseInt(parts[3]), outputTime : Std.parseInt(parts[4])});
+        }
+
+        return manifest;
+    }
+
+    private function writeStripManifest(path : String, manifest : Map<String, StripManifestEntry>)
+    {
+        var content = new StringBuf();
+
+        for (name in manifest.keys())
+        {
+            var entry = manifest.get(name);
+            content.add('${entry.inputHash} ${entry.inputSize} ${entry.inputTime} ${entry.outputSize} ${entry.outputTime} $name\n');
+        }
+
+        File.saveContent(path, content.toString());
     }
 
     private function runGradle()
@@ -853,22 +1663,162 @@ class PlatformBuild
         }
 
         var executable = "gradlew";
+        var gradlePath = projectDirectory;
 
         if (PlatformHelper.hostPlatform == Platform.WINDOWS)
         {
             executable = "gradlew.bat";
         }
 
+        /// e.g. an installed gradle instead of the wrapper, or the stand-in of the benchmark in test/benchmark
+        if (Arguments.isSet("-gradlepath"))
+        {
+            gradlePath = Arguments.get("-gradlepath");
+            executable = PlatformHelper.hostPlatform == Platform.WINDOWS ? "gradle.bat" : "gradle";
+            args.push("--project-dir");
+            args.push(FileSystem.fullPath(projectDirectory));
+        }
+
         if (isVerbose)
         {
             args.push("--stacktrace");
         }
 
+        /// a warm daemon skips the JVM startup and the loading of the android plugin
+        if (Arguments.isSet("-fastgradle"))
+        {
+            args.push("--daemon");
+        }
+
+        var timingsFile = Path.join([targetDirectory, GRADLE_TIMINGS_FILENAME]);
+        if (FileSystem.exists(timingsFile))
+        {
+            FileSystem.deleteFile(timingsFile);
+        }
+
+        args.push("--init-script");
+        args.push(Path.join([duellBuildAndroidPath, "template", "android", "duell_timings.gradle"]));
+        args.push("-PduellTimingsFile=" + timingsFile);
+
+        if (!Arguments.isSet("-gradlepath"))
+        {
+            CommandHelper.runCommand(projectDirectory, "chmod", ["+x", executable], {errorMessage: "setting permissions on gradlew"});
+        }
+
+        var startTime = haxe.Timer.stamp();
+
+        CommandHelper.runCommand(gradlePath, executable, args, {errorMessage: "compiling the .apk", systemCommand:false});
+
+        reportGradleTimings(timingsFile, haxe.Timer.stamp() - startTime);
+    }
+
+    /// the loader can only map the libraries from the apk if they are stored uncompressed at page boundaries
+    private function verifyNativeLibAlignment()
+    {
+        var apks = [];
+
+        if (PlatformConfiguration.getData().ABI_SPLITS)
+        {
+            for (abi in Configuration.getData().PLATFORM.ARCH_ABIS)
+            {
+                apks.push(getOutputApkPath(abi));
+            }
+        }
+        else
+        {
+            apks.push(getOutputApkPath(null));
+        }
+
+        var zipalignPath = Path.join([buildToolsPath, Configuration.getData().PLATFORM.BUILD_TOOLS_VERSION]);
+        var badLibs = [];
+
+        for (apk in apks)
+        {
+            /// -p checks the page alignment of the .so files, -v lists every entry as "(OK)", "(OK - compressed)" or "(BAD - <offset>)"
+            var process = new DuellProcess(
+                                            zipalignPath,
+                                            "zipalign",
+                                            ["-c", "-v", "-p", "4", apk],
+                                            {
+                                                timeout : 300,
+                                                mute : true,
+                                                shutdownOnError : false,
+                                                block : true,
+                                                systemCommand : false,
+                                                errorMessage : "verifying the alignment of the native libraries"
+                                            });
+
+            for (output in process.getCompleteStdout().toString().split("\n"))
+            {
+                var line = output.trim();
+
+                if (line.indexOf(".so ") != -1 && (line.indexOf("compressed") != -1 || line.indexOf("BAD") != -1))
+                {
+                    badLibs.push(Path.withoutDirectory(apk) + ": " + line);
+                }
+            }
+        }
+
+        if (badLibs.length > 0)
+        {
+            throw "The native libraries are not stored uncompressed and page aligned, so they would be extracted at install time:\n    " + badLibs.join("\n    ");
+        }
+
+        LogHelper.info("The native libraries are stored uncompressed and page aligned");
+    }
 
-        CommandHelper.runCommand(projectDirectory, "chmod", ["+x", executable], {errorMessage: "setting permissions on gradlew"});
+    private function reportGradleTimings(timingsFile : String, totalSeconds : Float)
+    {
+        if (!FileSystem.exists(timingsFile))
+        {
+            return;
+        }
 
+        var phases = [];
+        var tasks = [];
+        var phaseMillis = 0;
 
-        CommandHelper.runCommand(projectDirectory, executable, args, {errorMessage: "compiling the .apk", systemCommand:false});
+        for (line in File.getContent(timingsFile).split("\n"))
+        {
+            var parts = line.split("\t");
+            if (parts.length != 3)
+            {
+                continue;
+            }
+
+            var millis = Std.parseInt(parts[2]);
+
+            if (parts[0] == "phase")
+            {
+                phases.push({name : parts[1], millis : millis});
+                phaseMillis += millis;
+            }
+            else
+            {
+                tasks.push({name : parts[1], millis : millis});
+            }
+        }
+
+        /// whatever happened before the init script ran: starting the JVM or connecting to the daemon
+        var startupMillis = Std.int(totalSeconds * 1000) - phaseMillis;
+        var summary = ["startup " + formatSeconds(startupMillis)];
+        for (phase in phases)
+        {
+            summary.push(phase.name + " " + formatSeconds(phase.millis));
+        }
+
+        LogHelper.info("Gradle timings: " + summary.join(", "));
+
+        tasks.sort(function(a, b) return b.millis - a.millis);
+        for (task in tasks.slice(0, GRADLE_SLOWEST_TASKS))
+        {
+            LogHelper.info("    " + task.name + " " + formatSeconds(task.millis));
+        }
+    }
+
+    private static function formatSeconds(millis : Int) : String
+    {
+        return (Math.round(Math.max(0, millis) / 100) / 10) + "s";
     }
 
     /// =========
@@ -876,63 +1826,439 @@ class PlatformBuild
     /// =========
     public function run()
     {
+        if (Arguments.isSet("-logcatfile"))
+        {
+            processRecordedLogcat(Arguments.get("-logcatfile"));
+            return;
+        }
+
         waitForEmulatorReady();
 
-        if (!install())
+        if (!install())
+        {
+            throw "Failed to install apk to device";
+        }
+        clearLogcat();
+
+        if (!isNDKGDB)
+        {
+            if (isRecordingStartupOrder)
+            {
+                /// install -r keeps the data of the app, including a previous recording
+                runAdbAsApp(["rm", "-f", STARTUP_ORDER_RECORDING_PATH]);
+            }
+
+            runActivity();
+
+            if (isRecordingStartupOrder)
+            {
+                recordStartupOrder();
+            }
+
+            runLogcat();
+
+            if (isEmulator)
+            {
+                waitForEmulatorFinished();
+            }
+            else
+            {
+                logcatProcess.exitCode();
+            }
+        }
+        else
+        {
+            runNDKGDB();
+            shutdownEmulator();
+        }
+    }
+
+    private function install(): Bool
+    {
+        if (Arguments.isSet("-test"))
+        {
+            uninstall();
+        }
+        else if (isFastDeploy)
+        {
+            return fastDeploy();
+        }
+
+        var args = ["install", "-r", getApkPathForDevice()];
+
+        LogHelper.info("Installing with '" + "adb " + args.join(" ") + "'");
+        var adbProcess = new DuellProcess(
+                                        adbPath,
+                                        "adb",
+                                        args,
+                                        {
+                                            timeout : 300,
+                                            logOnlyIfVerbose : false,
+                                            shutdownOnError : true,
+                                            block : true,
+                                            errorMessage : "installing on device"
+                                        });
+
+        if (adbProcess.lastLine.startsWith("Failure"))
+        {
+            return false;
+        }
+
+        return true;
+    }
+
+    /// Installs the apk only when anything but its native libraries changed since the last deployment to the device,
+    /// and otherwise copies the changed native libraries into the data folder of the app, where the debug build of
+    /// FastDeploy.java picks them up. What is on the device is kept in a manifest per device serial.
+    private function fastDeploy() : Bool
+    {
+        var abi = getDeviceABIForBuild();
+        var apk = getOutputApkPath(PlatformConfiguration.getData().ABI_SPLITS ? abi : null);
+        var serial = runAdb(["get-serialno"], "reading the serial of the device").trim();
+
+        var manifestPath = Path.join([targetDirectory, "fastdeploy", serial + ".txt"]);
+        var previous = readFastDeployManifest(manifestPath);
+        var current = new Map<String, FastDeployEntry>();
+
+        /// device path relative to the fast deploy folder -> local path
+        var files = new Map<String, String>();
+
+        var libFolder = Path.join([projectDirectory, "native-libs", abi]);
+        if (FileSystem.exists(libFolder))
+        {
+            for (lib in FileSystem.readDirectory(libFolder))
+            {
+                if (lib.endsWith(".so"))
+                    files.set("lib/" + lib, Path.join([libFolder, lib]));
+            }
+        }
+
+        var apkHash = hashApkWithoutDeployedFiles(apk);
+        var isInstalled = runAdb(["shell", "pm", "path", Configuration.getData().APP.PACKAGE], null).indexOf("package:") != -1;
+        var previousApk = previous.get(FAST_DEPLOY_APK_ENTRY);
+
+        current.set(FAST_DEPLOY_APK_ENTRY, {hash : apkHash, size : 0, time : 0});
+
+        if (!isInstalled || previousApk == null || previousApk.hash != apkHash)
+        {
+            LogHelper.info("Installing " + apk + ", more than its native libraries changed since the last deployment");
+
+            var adbProcess = new DuellProcess(
+                                            adbPath,
+                                            "adb",
+                                            ["install", "-r", apk],
+                                            {
+                                                timeout : 300,
+                                                logOnlyIfVerbose : false,
+                                                shutdownOnError : true,
+                                                block : true,
+                                                errorMessage : "installing on device"
+                                            });
+
+            if (adbProcess.lastLine.startsWith("Failure"))
+            {
+                return false;
+            }
+
+            /// the apk has the current files, older pushed ones would shadow them
+            runAdbAsApp(["rm", "-r", FAST_DEPLOY_DEVICE_PATH]);
+
+            for (file in files.keys())
+            {
+                current.set(file, hashFastDeployFile(files.get(file), null));
+            }
+
+            writeFastDeployManifest(manifestPath, current);
+            return true;
+        }
+
+        var pushed = 0;
+        var temporaryFolder = FAST_DEPLOY_TEMPORARY_PATH + "/" + Configuration.getData().APP.PACKAGE;
+
+        for (file in files.keys())
+        {
+            var entry = hashFastDeployFile(files.get(file), previous.get(file));
+            current.set(file, entry);
+
+            if (previous.exists(file) && previous.get(file).hash == entry.hash)
+                continue;
+
+            /// adb can only write to the temporary folder, the app user copies the file from there
+            var temporaryFile = temporaryFolder + "/" + file;
+            var deviceFile = FAST_DEPLOY_DEVICE_PATH + "/" + file;
+
+            runAdb(["push", files.get(file), temporaryFile], "pushing " + file + " to the device");
+            runAdbAsApp(["mkdir", "-p", Path.directory(deviceFile)]);
+            runAdbAsApp(["cp", temporaryFile, deviceFile]);
+
+            pushed++;
+        }
+
+        var removed = 0;
+        for (file in previous.keys())
+        {
+            if (file != FAST_DEPLOY_APK_ENTRY && !current.exists(file))
+            {
+                runAdbAsApp(["rm", "-f", FAST_DEPLOY_DEVICE_PATH + "/" + file]);
+                removed++;
+            }
+        }
+
+        if (pushed > 0)
+        {
+            runAdb(["shell", "rm", "-r", temporaryFolder], null);
+        }
+
+        /// a running app keeps the old libraries loaded
+        runAdb(["shell", "am", "force-stop", Configuration.getData().APP.PACKAGE], null);
+
+        writeFastDeployManifest(manifestPath, current);
+
+        LogHelper.info('Fast deploy: $pushed native libraries pushed, $removed removed, the rest of the apk is unchanged');
+        return true;
+    }
+
+    /// the crcs of the apk entries, without the native libraries that are pushed separately and without the signature,
+    /// which changes with every one of them. Assets stay in, the app reads them from the apk only.
+    private function hashApkWithoutDeployedFiles(apk : String) : String
+    {
+        var input = File.read(apk, true);
+        var entries = haxe.zip.Reader.readZip(input);
+        input.close();
+
+        var crcs = [];
+        for (entry in entries)
+        {
+            if (entry.fileName.startsWith("lib/") || entry.fileName.startsWith("META-INF/"))
+                continue;
+
+            crcs.push(entry.fileName + " " + entry.crc32);
+        }
+
+        crcs.sort(Reflect.compare);
+        return Md5.encode(crcs.join("\n"));
+    }
+
+    private function hashFastDeployFile(path : String, previous : FastDeployEntry) : FastDeployEntry
+    {
+        var stat = FileSystem.stat(path);
+        var time = Std.int(stat.mtime.getTime() / 1000);
+
+        if (previous != null && previous.size == stat.size && previous.time == time)
+            return previous;
+
+        return {hash : Md5.make(File.getBytes(path)).toHex(), size : stat.size, time : time};
+    }
+
+    private function readFastDeployManifest(path : String) : Map<String, FastDeployEntry>
+    {
+        var manifest = new Map<String, FastDeployEntry>();
+
+        if (!FileSystem.exists(path))
+            return manifest;
+
+        for (line in File.getContent(path).split("\n"))
+        {
+            var parts = line.split(" ");
+
+            if (parts.length < 4)
+                continue;
+
+            manifest.set(parts.slice(3).join(" "), {hash : parts[0], size : Std.parseInt(parts[1]), time : Std.parseInt(parts[2])});
+        }
+
+        return manifest;
+    }
+
+    private function writeFastDeployManifest(path : String, manifest : Map<String, FastDeployEntry>)
+    {
+        var content = new StringBuf();
+
+        for (name in manifest.keys())
+        {
+            var entry = manifest.get(name);
+            content.add('${entry.hash} ${entry.size} ${entry.time} $name\n');
+        }
+
+        PathHelper.mkdir(Path.directory(path));
+        File.saveContent(path, content.toString());
+    }
+
+    /// runs adb and returns its output, failures stop the build when there is an error message
+    private function runAdb(args : Array<String>, errorMessage : String) : String
+    {
+        var process = new DuellProcess(
+                                        adbPath,
+                                        "adb",
+                                        args,
+                                        {
+                                            timeout : 300,
+                                            mute : true,
+                                            shutdownOnError : errorMessage != null,
+                                            block : true,
+                                            errorMessage : errorMessage != null ? errorMessage : "running adb " + args.join(" ")
+                                        });
+
+        return process.getCompleteStdout().toString();
+    }
+
+    /// adb talks to the only connected device when there is no serial
+    private static function deviceArgs(serial : String, args : Array<String>) : Array<String>
+    {
+        return serial == null ? args : ["-s", serial].concat(args);
+    }
+
+    /// with abi splits gradle builds one apk per abi, named <file>-<abi>-<build type>.apk
+    private function getOutputApkPath(abi : String) : String
+    {
+        var buildType = isDebug ? "debug" : "release";
+        var binaryName = Configuration.getData().APP.FILE + (abi != null ? '-$abi' : "") + '-$buildType.apk';
+
+        return Path.join([projectDirectory, "build", "outputs", "apk", binaryName]);
+    }
+
+    private function getApkPathForDevice(?serial : String) : String
+    {
+        if (!PlatformConfiguration.getData().ABI_SPLITS)
+        {
+            return getOutputApkPath(null);
+        }
+
+        return getOutputApkPath(getDeviceABIForBuild(serial));
+    }
+
+    /// the abi of the native libraries that the device loads from this build
+    private function getDeviceABIForBuild(?serial : String) : String
+    {
+        var builtABIs = Configuration.getData().PLATFORM.ARCH_ABIS;
+        var deviceABIs = getDeviceABIs(serial);
+
+        /// the device lists its abis from the most to the least preferred
+        for (abi in deviceABIs)
+        {
+            if (builtABIs.indexOf(abi) != -1)
+            {
+                return abi;
+            }
+        }
+
+        throw "None of the built architectures (" + builtABIs.join(", ") + ") runs on the device (" + deviceABIs.join(", ") + ")";
+    }
+
+    private function getDeviceABIs(?serial : String) : Array<String>
+    {
+        /// abilist exists since android 5.0, older devices only have the primary and secondary abi
+        for (properties in [["ro.product.cpu.abilist"], ["ro.product.cpu.abi", "ro.product.cpu.abi2"]])
+        {
+            var abis = [];
+
+            for (property in properties)
+            {
+                var process = new DuellProcess(
+                                                adbPath,
+                                                "adb",
+                                                deviceArgs(serial, ["shell", "getprop", property]),
+                                                {
+                                                    timeout : 60,
+                                                    mute : true,
+                                                    shutdownOnError : false,
+                                                    block : true,
+                                                    errorMessage : "reading the architectures of the device"
+                                                });
+
+                for (value in process.getCompleteStdout().toString().split(","))
+                {
+                    var abi = value.trim();
+                    if (abi != "" && abis.indexOf(abi) == -1)
+                    {
+                        abis.push(abi);
+                    }
+                }
+            }
+
+            if (abis.length > 0)
+            {
+                return abis;
+            }
+        }
+
+        return [];
+    }
+
+    /// waits for the recorder in the app to write the function offsets, and stores them as symbol names
+    private function recordStartupOrder()
+    {
+        var abi = getDeviceABIForBuild();
+        var recording : String = null;
+        var deadline = haxe.Timer.stamp() + STARTUP_ORDER_RECORDING_TIMEOUT;
+
+        LogHelper.info("Recording the startup function order...");
+
+        while (recording == null && haxe.Timer.stamp() < deadline)
         {
-            throw "Failed to install apk to device";
+            Sys.sleep(1);
+
+            var output = runAdbAsApp(["cat", STARTUP_ORDER_RECORDING_PATH]);
+            if (output.indexOf("end") != -1)
+            {
+                recording = output;
+            }
         }
-        clearLogcat();
 
-        if (!isNDKGDB)
+        if (recording == null)
         {
-            runActivity();
-            runLogcat();
+            throw "The app did not write the startup function order, was it built with -recordstartuporder?";
+        }
 
-            if (isEmulator)
+        var functions = ElfReader.getFunctionSymbols(Path.join([libsWithSymbolsDirectory, abi, "libHaxeApplication.so"]));
+        var order = [];
+        var recorded = new Map<String, Bool>();
+
+        for (line in recording.split("\n"))
+        {
+            var offset = line.trim();
+            if (offset == "" || offset == "end")
             {
-                waitForEmulatorFinished();
+                continue;
             }
-            else
+
+            var symbol = ElfReader.findFunction(functions, Std.parseInt("0x" + offset));
+            if (symbol != null && !recorded.exists(symbol))
             {
-                logcatProcess.blockUntilFinished();
+                recorded.set(symbol, true);
+                order.push(symbol);
             }
         }
-        else
-        {
-            runNDKGDB();
-            shutdownEmulator();
-        }
-    }
 
-    private function install(): Bool
-    {
-        if (Arguments.isSet("-test"))
+        var orderFolder = PlatformConfiguration.getData().STARTUP_ORDER_PATH;
+        if (orderFolder == null)
         {
-            uninstall();
+            orderFolder = Path.join([targetDirectory, "startup_order"]);
         }
 
-        var args = ["install", "-r", Path.join([projectDirectory, "build", "outputs", "apk", Configuration.getData().APP.FILE+ "-" + (isDebug ? "debug" : "release") + ".apk"])];
+        var orderFile = Path.join([orderFolder, abi + ".txt"]);
+        PathHelper.mkdir(orderFolder);
+        File.saveContent(orderFile, order.join("\n") + "\n");
 
-        LogHelper.info("Installing with '" + "adb " + args.join(" ") + "'");
-        var adbProcess = new DuellProcess(
+        LogHelper.info('Recorded ${order.length} functions in their startup order to $orderFile');
+    }
+
+    /// runs a shell command on the device as the app user, which only works for debuggable apps
+    private function runAdbAsApp(command : Array<String>) : String
+    {
+        var process = new DuellProcess(
                                         adbPath,
                                         "adb",
-                                        args,
+                                        ["shell", "run-as", Configuration.getData().APP.PACKAGE].concat(command),
                                         {
-                                            timeout : 300,
-                                            logOnlyIfVerbose : false,
-                                            shutdownOnError : true,
+                                            timeout : 60,
+                                            mute : true,
+                                            shutdownOnError : false,
                                             block : true,
-                                            errorMessage : "installing on device"
+                                            errorMessage : "running a command as the app"
                                         });
 
-        if (adbProcess.lastLine.startsWith("Failure"))
-        {
-            return false;
-        }
-
-        return true;
+        return process.getCompleteStdout().toString();
     }
 
     private function uninstall()
@@ -985,33 +2311,66 @@ class PlatformBuild
                                         });
     }
 
+    /// the records are filtered in the plugin, so crash reports of other processes still come through
     private function runLogcat()
     {
-        var args = ["logcat"];
-
+        var filter : LogcatFilter = {showAll : isFullLogcat};
 
         if (!isFullLogcat)
         {
-            var filter = "*:E";
-            var includeTags = ["duell", "Main", "DuellActivity", "GLThread", "trace"];
+            filter.tags = LOGCAT_TAGS;
+            filter.minimumLevel = "E";
+            filter.pid = getAppPid();
+        }
+
+        var processor = new LogcatProcessor(filter, new NativeSymbolicator(libsWithSymbolsDirectory));
+        var process = new sys.io.Process(Path.join([adbPath, "adb"]), ["logcat", "-v", "threadtime"]);
+        logcatProcess = process;
+
+        duell.helpers.ThreadHelper.runInAThread(function()
+            {
+                processor.processInput(process.stdout);
+            }
+        );
+    }
+
+    private function getAppPid() : Null<Int>
+    {
+        /// pidof exists since android 7.0
+        for (attempt in 0...LOGCAT_PID_ATTEMPTS)
+        {
+            var output = runAdb(["shell", "pidof", Configuration.getData().APP.PACKAGE], null).trim();
+
+            if (output.indexOf("not found") != -1)
+            {
+                return null;
+            }
 
-            for (tag in includeTags)
+            var pid = Std.parseInt(output);
+            if (pid != null)
             {
-                filter += " " + tag + ":D";
+                return pid;
             }
-            args = args.concat([filter]);
+
+            Sys.sleep(0.5);
         }
 
+        return null;
+    }
 
-        logcatProcess = new DuellProcess(
-                                        adbPath,
-                                        "adb",
-                                        args,
-                                        {
-                                            logOnlyIfVerbose : false,
-                                            loggingPrefix: "[LOGCAT]",
-                                            errorMessage : "running logcat"
-                                        });
+    private function processRecordedLogcat(path : String)
+    {
+        if (!FileSystem.exists(path))
+        {
+            throw "Logcat file not found: " + path;
+        }
+
+        var filter : LogcatFilter = {showAll : isFullLogcat, tags : LOGCAT_TAGS, minimumLevel : "E"};
+        var processor = new LogcatProcessor(filter, new NativeSymbolicator(libsWithSymbolsDirectory));
+
+        processor.processFile(path);
+
+        LogHelper.info('${processor.crashes} crashes and ${processor.anrs} ANRs in $path');
     }
 
     private function runNDKGDB()
@@ -1034,37 +2393,339 @@ class PlatformBuild
     {
         waitForEmulatorReady();
 
+        /**
+        * TODO: Find a better/central place for the hardcoded fallback port 8181
+        *       which is intended fall back on if the duell-tool's configuration
+        *       does not provide the TEST_PORT property (backward-compatibility).
+        *       Remove eventually...
+        **/
+        var testPort:Int = untyped Configuration.getData().TEST_PORT == null ?
+            8181 : Configuration.getData().TEST_PORT;
+
+        var shards : Array<TestShard> = [];
+        var devices = getTestDevices();
+
+        for (i in 0...devices.length)
+        {
+            var resultPath = fullTestResultPath;
+            if (devices.length > 1)
+            {
+                resultPath = Path.join([Path.directory(fullTestResultPath), Path.withoutExtension(TEST_RESULT_FILENAME) + '_$i.xml']);
+            }
+
+            shards.push({serial : devices[i], index : i, port : testPort + i, resultPath : resultPath, started : false, finished : false, failure : null});
+        }
+
         /// DELETE PREVIOUS TEST
-        if (sys.FileSystem.exists(fullTestResultPath))
+        for (path in [fullTestResultPath].concat([for (shard in shards) shard.resultPath]))
         {
-            sys.FileSystem.deleteFile(fullTestResultPath);
+            if (sys.FileSystem.exists(path))
+            {
+                sys.FileSystem.deleteFile(path);
+            }
         }
 
         /// CREATE TARGET FOLDER
         PathHelper.mkdir(Path.directory(fullTestResultPath));
 
+        /// INSTALL ON EVERY DEVICE AT ONCE
+        installForTest(shards);
+
+        /// RUN THE LISTENERS, ONE PER DEVICE
+        for (shard in shards)
+        {
+            startTestListener(shard);
+        }
+
         /// RUN THE APP
-        install();
+        for (shard in shards)
+        {
+            if (!waitForTestListener(shard))
+            {
+                LogHelper.info('The test listener on port ${shard.port} did not come up, starting the app anyway');
+            }
+
+            /// Every device reaches its own listener through localhost:testPort on the device. A test client that connects
+            /// to the host through the emulator alias 10.0.2.2 bypasses the mapping and reaches the listener of shard 0.
+            if (shards.length > 1)
+            {
+                runAdb(["-s", shard.serial, "reverse", 'tcp:$testPort', 'tcp:${shard.port}'], "forwarding the test port of " + shard.serial);
+            }
+
+            runTestActivity(shard, shards.length);
+        }
+
+        while (shards.filter(function(shard) return !shard.finished).length > 0)
+        {
+            Sys.sleep(0.5);
+        }
+
+        if (shards.length > 1)
+        {
+            for (shard in shards)
+            {
+                runAdb(["-s", shard.serial, "reverse", "--remove", 'tcp:$testPort'], null);
+            }
+        }
+
+        /// checked before merging, which fills in the missing results
+        var failures = [];
+        for (shard in shards)
+        {
+            if (shard.failure != null || !FileSystem.exists(shard.resultPath))
+            {
+                var device = shard.serial != null ? shard.serial : "the device";
+                failures.push('$device: ' + (shard.failure != null ? shard.failure : "no test results in " + shard.resultPath));
+            }
+        }
+
+        if (shards.length > 1)
+        {
+            mergeTestResults(shards);
+        }
+
+        shutdownEmulator();
+
+        if (failures.length > 0)
+        {
+            throw "Running the tests failed on " + failures.join(", ");
+        }
+    }
+
+    /// -testdevices takes a comma separated list of serials or "all", by default the only connected device runs the tests
+    private function getTestDevices() : Array<Null<String>>
+    {
+        if (!Arguments.isSet("-testdevices"))
+        {
+            return [null];
+        }
+
+        var devices : Array<Null<String>> = [];
+        var value : String = Arguments.get("-testdevices");
+
+        if (value != "all")
+        {
+            for (serial in value.split(","))
+            {
+                if (serial.trim() != "")
+                    devices.push(serial.trim());
+            }
+        }
+        else
+        {
+            for (line in runAdb(["devices"], "listing the devices").split("\n"))
+            {
+                var columns = line.trim().split("\t");
+                if (columns.length == 2 && columns[1] == "device")
+                {
+                    devices.push(columns[0]);
+                }
+            }
+        }
+
+        if (devices.length == 0)
+        {
+            throw "No device to run the tests on";
+        }
+
+        LogHelper.info('Running the tests on ${devices.length} device(s)');
+
+        return devices;
+    }
+
+    private function installForTest(shards : Array<TestShard>)
+    {
+        var jobs : Array<ParallelProcessJob> = [];
+
+        for (shard in shards)
+        {
+            runAdb(deviceArgs(shard.serial, ["shell", "pm", "uninstall", Configuration.getData().APP.PACKAGE]), null);
+
+            jobs.push({
+                name : shard.serial != null ? shard.serial : "device",
+                path : adbPath,
+                command : "adb",
+                args : deviceArgs(shard.serial, ["install", "-r", getApkPathForDevice(shard.serial)]),
+                errorMessage : "installing on device",
+                systemCommand : false
+            });
+        }
+
+        ParallelProcessRunner.run(jobs, jobs.length);
+    }
+
+    private function startTestListener(shard : TestShard)
+    {
         duell.helpers.ThreadHelper.runInAThread(function()
             {
-                Sys.sleep(DELAY_BETWEEN_PYTHON_LISTENER_AND_RUNNING_THE_APP);
-                runActivity();
+                shard.started = true;
+
+                try
+                {
+                    TestHelper.runListenerServer(TEST_LISTENER_TIMEOUT, shard.port, shard.resultPath);
+                }
+                catch (error : Dynamic)
+                {
+                    shard.failure = Std.string(error);
+                }
+
+                shard.finished = true;
             }
         );
+    }
 
-        /**
-        * TODO: Find a better/central place for the hardcoded fallback port 8181
-        *       which is intended fall back on if the duell-tool's configuration
-        *       does not provide the TEST_PORT property (backward-compatibility).
-        *       Remove eventually...
-        **/
-        var testPort:Int = untyped Configuration.getData().TEST_PORT == null ?
-            8181 : Configuration.getData().TEST_PORT;
+    /// TestHelper binds the port inside runListenerServer, so once the thread runs, the socket table of the host tells
+    /// when it listens. Binding or connecting to the port to find out would race the listener or count as the test run.
+    private function waitForTestListener(shard : TestShard) : Bool
+    {
+        var deadline = haxe.Timer.stamp() + TEST_LISTENER_STARTUP_TIMEOUT;
+
+        while (haxe.Timer.stamp() < deadline && !shard.finished)
+        {
+            if (shard.started && isPortListening(shard.port))
+            {
+                return true;
+            }
 
-        /// RUN THE LISTENER
-        TestHelper.runListenerServer(300, testPort, fullTestResultPath);
+            Sys.sleep(0.1);
+        }
 
-        shutdownEmulator();
+        return false;
+    }
+
+    private static function isPortListening(port : Int) : Bool
+    {
+        if (PlatformHelper.hostPlatform == Platform.LINUX)
+        {
+            /// sl local_address rem_address st ..., with the port in hex and 0A for LISTEN
+            for (table in ["/proc/net/tcp", "/proc/net/tcp6"])
+            {
+                if (!FileSystem.exists(table))
+                    continue;
+
+                for (line in File.getContent(table).split("\n"))
+                {
+                    var columns = line.trim().split(" ").filter(function(column) return column != "");
+                    if (columns.length > 3 && columns[3] == "0A" && Std.parseInt("0x" + columns[1].split(":").pop()) == port)
+                    {
+                        return true;
+                    }
+                }
+            }
+
+            return false;
+        }
+
+        var process = new sys.io.Process("netstat", ["-an"]);
+        var output = process.stdout.readAll().toString();
+        process.close();
+
+        /// the local address ends in .port on mac and in :port on windows
+        for (line in output.split("\n"))
+        {
+            if (line.indexOf("LISTEN") == -1)
+                continue;
+
+            for (column in line.trim().split(" "))
+            {
+                if (column.endsWith('.$port') || column.endsWith(':$port'))
+                {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /// TestShard.java in the app reads the extras, so that each device runs its part of the tests
+    private function runTestActivity(shard : TestShard, shardCount : Int)
+    {
+        var component = Configuration.getData().APP.PACKAGE + "/" + Configuration.getData().APP.PACKAGE + "." + "MainActivity";
+
+        runAdb(deviceArgs(shard.serial, ["shell", "am", "start", "-a", "android.intent.action.MAIN", "-n", component,
+                                         "--ei", "duell.test.shard", "" + shard.index,
+                                         "--ei", "duell.test.shardcount", "" + shardCount]),
+               "running the app on the device");
+    }
+
+    /// Puts the test suites of every device into one JUnit report at fullTestResultPath. A device without results
+    /// gets a suite with an error, so that a crashed shard fails the report.
+    private function mergeTestResults(shards : Array<TestShard>)
+    {
+        var merged = Xml.createElement("testsuites");
+        var totals = ["tests" => 0, "failures" => 0, "errors" => 0];
+
+        for (shard in shards)
+        {
+            var suites : Array<Xml> = [];
+
+            if (FileSystem.exists(shard.resultPath))
+            {
+                try
+                {
+                    var root = Xml.parse(File.getContent(shard.resultPath)).firstElement();
+
+                    if (root != null && root.nodeName == "testsuites")
+                    {
+                        suites = [for (suite in root.elementsNamed("testsuite")) suite];
+                    }
+                    else if (root != null && root.nodeName == "testsuite")
+                    {
+                        suites = [root];
+                    }
+                }
+                catch (error : Dynamic)
+                {
+                    shard.failure = "unreadable test results: " + Std.string(error);
+                }
+            }
+
+            if (suites.length == 0)
+            {
+                var failure = Xml.createElement("error");
+                failure.set("message", shard.failure != null ? shard.failure : "the device did not report any test results");
+
+                var testCase = Xml.createElement("testcase");
+                testCase.set("classname", shard.serial);
+                testCase.set("name", "shard " + shard.index);
+                testCase.addChild(failure);
+
+                var suite = Xml.createElement("testsuite");
+                suite.set("name", "shard " + shard.index);
+                suite.set("tests", "1");
+                suite.set("failures", "0");
+                suite.set("errors", "1");
+                suite.addChild(testCase);
+
+                suites = [suite];
+            }
+
+            for (suite in suites)
+            {
+                suite.set("hostname", shard.serial);
+
+                for (key in totals.keys())
+                {
+                    var value = Std.parseInt(suite.get(key));
+                    if (value != null)
+                    {
+                        totals.set(key, totals.get(key) + value);
+                    }
+                }
+
+                merged.addChild(suite);
+            }
+        }
+
+        for (key in totals.keys())
+        {
+            merged.set(key, "" + totals.get(key));
+        }
+
+        File.saveContent(fullTestResultPath, '<?xml version="1.0" encoding="UTF-8"?>\n' + merged.toString() + "\n");
+
+        LogHelper.info('Merged the test results of ${shards.length} devices into $fullTestResultPath');
     }
 
     /// =========
@@ -1083,14 +2744,31 @@ class PlatformBuild
 
         var buildType: String = isDebug ? "debug" : "release";
 
-        var binaryName: String = '${Configuration.getData().APP.FILE}-$buildType.apk';
-        var outputFile: String = Path.join([projectDirectory, "build", "outputs", "apk", binaryName]);
-        var destinationFile: String = Path.join([publishDirectory, '${Configuration.getData().APP.FILE}.apk']);
+        if (PlatformConfiguration.getData().ABI_SPLITS)
+        {
+            Configuration.getData().PLATFORM.PUBLISHED_APK_PATHS = [];
+
+            for (abi in Configuration.getData().PLATFORM.ARCH_ABIS)
+            {
+                var destinationFile: String = Path.join([publishDirectory, '${Configuration.getData().APP.FILE}-$abi.apk']);
+
+                FileHelper.copyIfNewer(getOutputApkPath(abi), destinationFile);
+
+                Configuration.getData().PLATFORM.PUBLISHED_APK_PATHS.push({ABI : abi, PATH : destinationFile});
+            }
+
+            // update the published paths so that the plugins can operate on postPublish
+            Configuration.getData().PLATFORM.PUBLISHED_APK_PATH = Configuration.getData().PLATFORM.PUBLISHED_APK_PATHS[0].PATH;
+        }
+        else
+        {
+            var destinationFile: String = Path.join([publishDirectory, '${Configuration.getData().APP.FILE}.apk']);
 
-        FileHelper.copyIfNewer(outputFile, destinationFile);
+            FileHelper.copyIfNewer(getOutputApkPath(null), destinationFile);
 
-        // update the published paths so that the plugins can operate on postPublish
-        Configuration.getData().PLATFORM.PUBLISHED_APK_PATH = destinationFile;
+            // update the published paths so that the plugins can operate on postPublish
+            Configuration.getData().PLATFORM.PUBLISHED_APK_PATH = destinationFile;
+        }
 
         // run proguard on the resulting file and update PUBLISHED_MAPPING_PATH
         if (Configuration.getData().PLATFORM.PROGUARD_ENABLED)
@@ -44,6 +44,17 @@ typedef PlatformConfigurationData = {
 	JAVA_SOURCES : Array<{NAME : String, PATH : String}>,
 	JARS : Array<String>,
 	FULLSCREEN : Bool,
+	HAXE_FRAME_BUDGET_MICROS : Int,
+	TRACING : Bool,
+	HAXE_THREAD_METRICS : Bool,
+	NATIVE_BUILD_JOBS : Int,
+	BUILD_CACHE_SIZE_MB : Int,
+	GRADLE_JVM_ARGS : String,
+	ABI_SPLITS : Bool,
+	UNCOMPRESSED_NATIVE_LIBS : Bool,
+	STARTUP_ORDER_PATH : String,
+	STARTUP_ORDER_LINKER : String,
+	FRAME_TIME_PROFILER : Bool,
 	COMPILE_SDK_VERSION : Int,
 	TARGET_SDK_VERSION : Int,
 	BUILD_TOOLS_VERSION : String,
@@ -79,12 +90,16 @@ typedef PlatformConfigurationData = {
 	/// generated
 	ARCH_ABIS : Array<String>,
 	NDK_PATH : String,
+	HAXE_BUILD_FOLDER : String,
+	NDLL_LOAD_ORDER : Array<{NAME : String, DEPENDENCIES : Array<String>}>,
 	PROGUARD_CONTENT : Array<String>,
 	PROGUARD_ENABLED : Bool,
 
 	/// generated from publish
 	PUBLISHED_APK_PATH: String,
-	PUBLISHED_MAPPING_PATH: String
+	PUBLISHED_MAPPING_PATH: String,
+	/// one entry per abi with <abi-splits>, PUBLISHED_APK_PATH is the one of the first arch
+	PUBLISHED_APK_PATHS: Array<{ABI : String, PATH : String}>
 }
 
 class PlatformConfiguration
@@ -117,6 +132,17 @@ class PlatformConfiguration
 									  PATH : haxe.io.Path.join([Haxelib.getHaxelib("hxcpp").getPath(), "java"])
 									  }],
 					FULLSCREEN : false,
+					HAXE_FRAME_BUDGET_MICROS : 0,
+					TRACING : false,
+					HAXE_THREAD_METRICS : false,
+					NATIVE_BUILD_JOBS : 0,
+					BUILD_CACHE_SIZE_MB : 2048,
+					GRADLE_JVM_ARGS : null,
+					ABI_SPLITS : false,
+					UNCOMPRESSED_NATIVE_LIBS : false,
+					STARTUP_ORDER_PATH : null,
+					STARTUP_ORDER_LINKER : "gold",
+					FRAME_TIME_PROFILER : false,
 					COMPILE_SDK_VERSION : 26,
 					TARGET_SDK_VERSION : 26,
 					BUILD_TOOLS_VERSION : "26.0.2",
@@ -161,9 +187,12 @@ class PlatformConfiguration
 
 					ARCH_ABIS : [],
 					NDK_PATH : "",
+					HAXE_BUILD_FOLDER : "build",
+					NDLL_LOAD_ORDER : [],
 
 					PUBLISHED_APK_PATH : "",
-					PUBLISHED_MAPPING_PATH : ""
+					PUBLISHED_MAPPING_PATH : "",
+					PUBLISHED_APK_PATHS : []
 				};
 	}
 }
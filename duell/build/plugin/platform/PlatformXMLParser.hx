@@ -40,6 +40,8 @@ import haxe.xml.Fast;
 
 class PlatformXMLParser
 {
+	private static inline var FRAME_TIME_PROFILER_EXTENSION = "org.haxe.duell.FrameTimeProfiler";
+
 	public static function parse(xml : Fast) : Void
 	{
 		for (element in xml.elements)
@@ -85,6 +87,36 @@ class PlatformXMLParser
 				case 'fullscreen':
 					parseFullscreenElement(element);
 
+				case 'haxe-frame-budget':
+					parseHaxeFrameBudgetElement(element);
+
+				case 'tracing':
+					parseTracingElement(element);
+
+				case 'haxe-thread-metrics':
+					parseHaxeThreadMetricsElement(element);
+
+				case 'native-build-jobs':
+					parseNativeBuildJobsElement(element);
+
+				case 'build-cache-size':
+					parseBuildCacheSizeElement(element);
+
+				case 'gradle-jvm-args':
+					parseGradleJVMArgsElement(element);
+
+				case 'abi-splits':
+					parseABISplitsElement(element);
+
+				case 'uncompressed-native-libs':
+					parseUncompressedNativeLibsElement(element);
+
+				case 'startup-order':
+					parseStartupOrderElement(element);
+
+				case 'frame-time-profiler':
+					parseFrameTimeProfilerElement(element);
+
 				case 'uses':
 					parseUsesElement(element);
 
@@ -224,6 +256,105 @@ class PlatformXMLParser
 		}
 	}
 
+	private static function parseHaxeFrameBudgetElement(element : Fast)
+	{
+		if (element.has.value)
+		{
+			PlatformConfiguration.getData().HAXE_FRAME_BUDGET_MICROS = Std.parseInt(element.att.value);
+		}
+	}
+
+	private static function parseTracingElement(element : Fast)
+	{
+		if (element.has.value)
+		{
+			PlatformConfiguration.getData().TRACING = element.att.value == "true";
+		}
+	}
+
+	private static function parseHaxeThreadMetricsElement(element : Fast)
+	{
+		if (element.has.value)
+		{
+			PlatformConfiguration.getData().HAXE_THREAD_METRICS = element.att.value == "true";
+		}
+	}
+
+	private static function parseNativeBuildJobsElement(element : Fast)
+	{
+		if (element.has.value)
+		{
+			PlatformConfiguration.getData().NATIVE_BUILD_JOBS = Std.parseInt(element.att.value);
+		}
+	}
+
+	private static function parseBuildCacheSizeElement(element : Fast)
+	{
+		if (element.has.value)
+		{
+			PlatformConfiguration.getData().BUILD_CACHE_SIZE_MB = Std.parseInt(element.att.value);
+		}
+	}
+
+	private static function parseGradleJVMArgsElement(element : Fast)
+	{
+		if (element.has.value)
+		{
+			PlatformConfiguration.getData().GRADLE_JVM_ARGS = element.att.value;
+		}
+	}
+
+	private static function parseABISplitsElement(element : Fast)
+	{
+		if (element.has.value)
+		{
+			PlatformConfiguration.getData().ABI_SPLITS = element.att.value == "true";
+		}
+	}
+
+	private static function parseUncompressedNativeLibsElement(element : Fast)
+	{
+		if (element.has.value)
+		{
+			PlatformConfiguration.getData().UNCOMPRESSED_NATIVE_LIBS = element.att.value == "true";
+		}
+	}
+
+	private static function parseStartupOrderElement(element : Fast)
+	{
+		if (element.has.path)
+		{
+			PlatformConfiguration.getData().STARTUP_ORDER_PATH = resolvePath(element.att.path);
+		}
+
+		if (element.has.linker)
+		{
+			if (element.att.linker != "gold" && element.att.linker != "lld")
+			{
+				throw "startup-order linker has to be gold or lld, not " + element.att.linker;
+			}
+
+			PlatformConfiguration.getData().STARTUP_ORDER_LINKER = element.att.linker;
+		}
+	}
+
+	private static function parseFrameTimeProfilerElement(element : Fast)
+	{
+		if (element.has.value)
+		{
+			var extensions = PlatformConfiguration.getData().ACTIVITY_EXTENSIONS;
+			var enabled = element.att.value == "true";
+
+			PlatformConfiguration.getData().FRAME_TIME_PROFILER = enabled;
+
+			extensions.remove(FRAME_TIME_PROFILER_EXTENSION);
+			if (enabled)
+			{
+				extensions.push(FRAME_TIME_PROFILER_EXTENSION);
+			}
+		}
+	}
+
 	private static function parseUsesElement(element : Fast)
 	{
 		var name = "name";
@@ -0,0 +1,146 @@
+/// Records the functions of libHaxeApplication.so in the order of their first call, for builds with
+/// -recordstartuporder. The haxe code is compiled with -finstrument-functions, so every function calls
+/// __cyg_profile_func_enter. RECORDING_SECONDS after the first call, the offsets of the functions in the library
+/// are written to files/duell_startup_order.txt in the data folder of the app, one hex offset per line, followed
+/// by an "end" line. The build plugin then pulls the file and turns the offsets into symbol names.
+
+#include <dlfcn.h>
+#include <pthread.h>
+#include <stdint.h>
+#include <stdio.h>
+#include <string.h>
+#include <sys/stat.h>
+#include <unistd.h>
+
+#define DUELL_NO_INSTRUMENT __attribute__((no_instrument_function))
+
+namespace
+{
+    const int MAX_FUNCTIONS = 1 << 18;
+    /// open addressing set of the seen functions, kept at most half full
+    const int TABLE_SIZE = MAX_FUNCTIONS * 2;
+    const unsigned int RECORDING_SECONDS = 10;
+
+    void *seen[TABLE_SIZE];
+    void *order[MAX_FUNCTIONS];
+    int count = 0;
+    volatile int recording = 1;
+
+    pthread_once_t writerOnce = PTHREAD_ONCE_INIT;
+
+    DUELL_NO_INSTRUMENT void writeOrder(const char *path)
+    {
+        Dl_info info;
+        if (dladdr((void *) &writeOrder, &info) == 0)
+        {
+            return;
+        }
+
+        FILE *file = fopen(path, "w");
+        if (file == NULL)
+        {
+            return;
+        }
+
+        int recorded = __sync_fetch_and_add(&count, 0);
+        if (recorded > MAX_FUNCTIONS)
+        {
+            recorded = MAX_FUNCTIONS;
+        }
+
+        for (int i = 0; i < recorded; i++)
+        {
+            if (order[i] != NULL)
+            {
+                fprintf(file, "%lx\n", (unsigned long) ((char *) order[i] - (char *) info.dli_fbase));
+            }
+        }
+
+        fprintf(file, "end\n");
+        fclose(file);
+    }
+
+    DUELL_NO_INSTRUMENT void *writer(void *)
+    {
+        sleep(RECORDING_SECONDS);
+        recording = 0;
+
+        /// the process name is the package name
+        char package[256] = {0};
+        FILE *cmdline = fopen("/proc/self/cmdline", "r");
+        if (cmdline == NULL)
+        {
+            return NULL;
+        }
+        fread(package, 1, sizeof(package) - 1, cmdline);
+        fclose(cmdline);
+
+        char path[512];
+        snprintf(path, sizeof(path), "/data/data/%s/files", package);
+        mkdir(path, 0700);
+
+        strncat(path, "/duell_startup_order.txt", sizeof(path) - strlen(path) - 1);
+        writeOrder(path);
+
+        return NULL;
+    }
+
+    DUELL_NO_INSTRUMENT void startWriter()
+    {
+        pthread_t thread;
+        if (pthread_create(&thread, NULL, writer, NULL) == 0)
+        {
+            pthread_detach(thread);
+        }
+    }
+}
+
+extern "C"
+{
+    DUELL_NO_INSTRUMENT void __cyg_profile_func_enter(void *function, void *)
+    {
+        if (!recording)
+        {
+            return;
+        }
+
+        pthread_once(&writerOnce, startWriter);
+
+        uintptr_t hash = ((uintptr_t) function >> 2) * 2654435761u;
+
+        for (int probe = 0; probe < TABLE_SIZE; probe++)
+        {
+            int slot = (int) ((hash + probe) & (TABLE_SIZE - 1));
+            void *current = seen[slot];
+
+            if (current == function)
+            {
+                return;
+            }
+
+            if (current == NULL)
+            {
+                if (__sync_bool_compare_and_swap(&seen[slot], NULL, function))
+                {
+                    int index = __sync_fetch_and_add(&count, 1);
+                    if (index < MAX_FUNCTIONS)
+                    {
+                        order[index] = function;
+                    }
+                    else
+                    {
+                        recording = 0;
+                    }
+                    return;
+                }
+
+                /// another thread took the slot, look at it again
+                probe--;
+            }
+        }
+    }
+
+    DUELL_NO_INSTRUMENT void __cyg_profile_func_exit(void *, void *)
+    {
+    }
+}
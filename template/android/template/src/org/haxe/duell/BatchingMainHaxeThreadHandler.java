@@ -0,0 +1,392 @@
+/*
+ * Copyright (c) 2003-2016, GameDuell GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.haxe.duell;
+
+import android.util.Log;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * MainHaxeThreadHandler that collects java to haxe messages in bounded rings of reusable slots and hands them to the
+ * haxe thread in batches.
+ * <p/>
+ * Instead of one Runnable plus one Handler message per event, producers obtain a slot, fill in an opcode and primitive
+ * payload and publish it. The first publish after a drain wakes up the haxe thread once through the target handler,
+ * and that wake up delivers the messages published up to that point. Libraries that own the haxe thread frame loop
+ * (e.g. the opengl library) can instead call {@link #drain()} once per frame themselves.
+ * <p/>
+ * Messages are queued in one of four priority lanes: input, lifecycle, I/O completion and background. A drain delivers
+ * the lanes in that order, and messages are only ordered relative to other messages of the same lane. With a frame
+ * budget set, the drain stops once the budget is used up and the remaining messages carry over to the next drain, so
+ * a burst of background work cannot hold up a frame, nor delay the input that arrives in the next one.
+ * <p/>
+ * Plain Runnables are still accepted through {@link #queueRunnableOnMainHaxeThread(Runnable)}, they travel through
+ * the rings under {@link #OPCODE_RUNNABLE} in {@link #DEFAULT_LANE}. If a lane is full, Runnables go to an unbounded
+ * overflow queue of that lane that is drained after the ring. Until that queue is empty again {@link #obtain} returns
+ * null for the lane, so that messages stay in order, and leaves it to the producer to drop or coalesce the event.
+ */
+public class BatchingMainHaxeThreadHandler implements MainHaxeThreadHandler
+{
+    private static final String TAG = "BatchingHaxeHandler";
+
+    /// reserved for the Runnable compatibility path
+    public static final int OPCODE_RUNNABLE = 0;
+    public static final int MAX_OPCODES = 64;
+    public static final int DEFAULT_CAPACITY = 512;
+
+    /// lanes in the order they are drained
+    public static final int LANE_INPUT = 0;
+    public static final int LANE_LIFECYCLE = 1;
+    public static final int LANE_IO = 2;
+    public static final int LANE_BACKGROUND = 3;
+    public static final int LANE_COUNT = 4;
+
+    /// lane used by queueOnHaxeThread and the other calls without an explicit lane
+    public static final int DEFAULT_LANE = LANE_IO;
+
+    private final HaxeMessageRing[] rings;
+    private final ConcurrentLinkedQueue<Runnable>[] overflows;
+    /// ConcurrentLinkedQueue.size() walks the whole queue, so the overflow sizes are counted separately
+    private final AtomicIntegerArray overflowSizes;
+    private final AtomicReferenceArray<HaxeMessageReceiver> receivers;
+
+    private final AtomicBoolean drainScheduled;
+    private final Runnable drainRunnable;
+
+    /// the rings have a single consumer, so only one drain runs at a time, even while the target changes threads
+    private final AtomicBoolean draining;
+
+    /// per lane snapshot taken at the start of a drain, only touched by the draining thread
+    private final int[] batchSizes;
+    private final int[] overflowBatchSizes;
+
+    private volatile MainHaxeThreadHandler target;
+    private volatile long frameBudgetNanos;
+
+    public BatchingMainHaxeThreadHandler(MainHaxeThreadHandler target)
+    {
+        this(target, DEFAULT_CAPACITY);
+    }
+
+    @SuppressWarnings("unchecked")
+    public BatchingMainHaxeThreadHandler(MainHaxeThreadHandler target, int capacityPerLane)
+    {
+        this.target = target;
+
+        rings = new HaxeMessageRing[LANE_COUNT];
+        overflows = new ConcurrentLinkedQueue[LANE_COUNT];
+
+        for (int lane = 0; lane < LANE_COUNT; lane++)
+        {
+            rings[lane] = new HaxeMessageRing(capacityPerLane);
+            overflows[lane] = new ConcurrentLinkedQueue<Runnable>();
+        }
+
+        overflowSizes = new AtomicIntegerArray(LANE_COUNT);
+
+        receivers = new AtomicReferenceArray<HaxeMessageReceiver>(MAX_OPCODES);
+        drainScheduled = new AtomicBoolean(false);
+        draining = new AtomicBoolean(false);
+        batchSizes = new int[LANE_COUNT];
+        overflowBatchSizes = new int[LANE_COUNT];
+
+        drainRunnable = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                drain();
+            }
+        };
+    }
+
+    /**
+     * Sets the handler used to wake up the haxe thread. Messages that are already queued are delivered by the next drain
+     * on the new handler. A drain that was posted to the previous handler may still run, drains never overlap though:
+     * one that starts while another is running returns right away and the running one schedules the leftovers.
+     */
+    public void setTarget(MainHaxeThreadHandler target)
+    {
+        this.target = target;
+
+        if (!isEmpty())
+        {
+            scheduleDrain();
+        }
+    }
+
+    /**
+     * Limits the time a single drain spends delivering messages. 0 (the default) delivers the whole batch. At least
+     * one message is delivered per drain, so a single slow message cannot stall the queue.
+     */
+    public void setFrameBudgetNanos(long frameBudgetNanos)
+    {
+        this.frameBudgetNanos = frameBudgetNanos;
+    }
+
+    public long getFrameBudgetNanos()
+    {
+        return frameBudgetNanos;
+    }
+
+    public void registerReceiver(int opcode, HaxeMessageReceiver receiver)
+    {
+        checkOpcode(opcode);
+        receivers.set(opcode, receiver);
+    }
+
+    /**
+     * Claims a free slot in the default lane, see {@link #obtain(int, int)}.
+     */
+    public HaxeMessage obtain(int opcode)
+    {
+        return obtain(DEFAULT_LANE, opcode);
+    }
+
+    /**
+     * Claims a free slot for the given opcode in the given lane. Fill in the payload and hand it back through
+     * {@link #publish}. Returns null if the lane is full, or while Runnables wait in its overflow queue, since the ring
+     * is delivered before the overflow and the message would overtake them. May be called from any thread.
+     */
+    public HaxeMessage obtain(int lane, int opcode)
+    {
+        checkOpcode(opcode);
+
+        HaxeMessage message = overflowSizes.get(lane) == 0 ? rings[lane].claim() : null;
+
+        if (message != null)
+        {
+            message.opcode = opcode;
+            message.lane = lane;
+        }
+
+        return message;
+    }
+
+    /**
+     * Publishes a slot previously returned by {@link #obtain}. Every obtained slot has to be published, otherwise its
+     * lane stalls at its position.
+     */
+    public void publish(HaxeMessage message)
+    {
+        rings[message.lane].publish(message);
+        scheduleDrain();
+    }
+
+    @Override
+    public void queueRunnableOnMainHaxeThread(Runnable runnable)
+    {
+        queueRunnableOnMainHaxeThread(DEFAULT_LANE, runnable);
+    }
+
+    public void queueRunnableOnMainHaxeThread(int lane, Runnable runnable)
+    {
+        HaxeMessage message = overflowSizes.get(lane) == 0 ? rings[lane].claim() : null;
+
+        if (message == null)
+        {
+            overflows[lane].add(runnable);
+            overflowSizes.incrementAndGet(lane);
+            scheduleDrain();
+            return;
+        }
+
+        message.opcode = OPCODE_RUNNABLE;
+        message.lane = lane;
+        message.ref = runnable;
+        publish(message);
+    }
+
+    public boolean isEmpty()
+    {
+        for (int lane = 0; lane < LANE_COUNT; lane++)
+        {
+            if (rings[lane].size() != 0 || overflowSizes.get(lane) != 0)
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /// approximate number of queued messages, may be called from any thread
+    public int size()
+    {
+        int size = 0;
+
+        for (int lane = 0; lane < LANE_COUNT; lane++)
+        {
+            size += size(lane);
+        }
+
+        return size;
+    }
+
+    /// approximate number of queued messages of one lane, may be called from any thread
+    public int size(int lane)
+    {
+        return rings[lane].size() + overflowSizes.get(lane);
+    }
+
+    /**
+     * Delivers the messages that are queued at the time of the call, lane by lane, until the frame budget is used up.
+     * Has to be called on the haxe thread. Returns the number of delivered messages, 0 when another drain is running.
+     */
+    public int drain()
+    {
+        if (!draining.compareAndSet(false, true))
+        {
+            /// the running drain may have finished in the meantime without seeing our wake up
+            drainScheduled.set(false);
+
+            if (!draining.get() && !isEmpty())
+            {
+                scheduleDrain();
+            }
+
+            return 0;
+        }
+
+        long budget = frameBudgetNanos;
+        long deadline = budget > 0 ? System.nanoTime() + budget : 0;
+        int delivered = 0;
+
+        try
+        {
+            for (int lane = 0; lane < LANE_COUNT; lane++)
+            {
+                batchSizes[lane] = rings[lane].size();
+                overflowBatchSizes[lane] = overflowSizes.get(lane);
+            }
+
+            /// publishes from here on are not part of this batch and wake up the next drain
+            drainScheduled.set(false);
+
+            for (int lane = 0; lane < LANE_COUNT; lane++)
+            {
+                HaxeMessageRing ring = rings[lane];
+                HaxeMessage message;
+
+                while (batchSizes[lane] > 0 && (message = ring.peek()) != null)
+                {
+                    if (delivered > 0 && deadline != 0 && System.nanoTime() >= deadline)
+                    {
+                        return delivered;
+                    }
+
+                    batchSizes[lane]--;
+                    delivered++;
+                    dispatch(ring, message);
+                }
+
+                ConcurrentLinkedQueue<Runnable> overflow = overflows[lane];
+                Runnable runnable;
+
+                while (overflowBatchSizes[lane] > 0)
+                {
+                    if (delivered > 0 && deadline != 0 && System.nanoTime() >= deadline)
+                    {
+                        return delivered;
+                    }
+
+                    if ((runnable = overflow.poll()) == null)
+                    {
+                        break;
+                    }
+
+                    overflowSizes.decrementAndGet(lane);
+                    overflowBatchSizes[lane]--;
+                    delivered++;
+                    runnable.run();
+                }
+            }
+        }
+        finally
+        {
+            draining.set(false);
+
+            /// covers leftovers of an exhausted budget, messages published during the batch
+            /// as well as a batch interrupted by an exception
+            if (!isEmpty())
+            {
+                scheduleDrain();
+            }
+        }
+
+        return delivered;
+    }
+
+    private void dispatch(HaxeMessageRing ring, HaxeMessage message)
+    {
+        if (message.opcode == OPCODE_RUNNABLE)
+        {
+            Runnable runnable = (Runnable) message.ref;
+            ring.release(message);
+            runnable.run();
+            return;
+        }
+
+        try
+        {
+            HaxeMessageReceiver receiver = receivers.get(message.opcode);
+
+            if (receiver != null)
+            {
+                receiver.onHaxeMessage(message);
+            }
+            else
+            {
+                Log.w(TAG, "No receiver registered for opcode " + message.opcode + ", dropping message");
+            }
+        }
+        finally
+        {
+            ring.release(message);
+        }
+    }
+
+    private void scheduleDrain()
+    {
+        if (drainScheduled.compareAndSet(false, true))
+        {
+            target.queueRunnableOnMainHaxeThread(drainRunnable);
+        }
+    }
+
+    private static void checkOpcode(int opcode)
+    {
+        if (opcode <= OPCODE_RUNNABLE || opcode >= MAX_OPCODES)
+        {
+            throw new IllegalArgumentException("Opcode has to be between 1 and " + (MAX_OPCODES - 1) + ", got " + opcode);
+        }
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright (c) 2003-2016, GameDuell GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.haxe.duell;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Pool of direct, native ordered ByteBuffers to exchange data with the haxe code without copying through byte[].
+ * <p/>
+ * Buffers are acquired and released by an int handle, which can be passed to haxe like any other int. The native side
+ * resolves the handle with {@link #getBuffer(int)} and GetDirectBufferAddress and works on the memory in place.
+ * Capacities are rounded up to a power of two size class between 256 bytes and 16 MB, larger buffers are not pooled.
+ * <p/>
+ * In debug builds the pool records where each buffer was acquired, rejects stale and double releases, and
+ * {@link #reportLeaks()} logs the buffers that were never released. Pooled buffers that are not in use are dropped
+ * through the MemoryPressureCoordinator on onTrimMemory and onLowMemory.
+ */
+public final class DirectBufferPool implements ReclaimableResource
+{
+    private static final String TAG = "DirectBufferPool";
+
+    public static final boolean DEBUG = ::if PLATFORM.DEBUG::true::else::false::end::;
+
+    private static final int MIN_SHIFT = 8;
+    private static final int MAX_SHIFT = 24;
+    private static final int CLASS_COUNT = MAX_SHIFT - MIN_SHIFT + 1;
+
+    /// handle layout: generation in bits 20 to 30, slot index in bits 0 to 19, so handles are always positive
+    private static final int INDEX_BITS = 20;
+    private static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+    private static final int GENERATION_MASK = (1 << 11) - 1;
+
+    public static final int INVALID_HANDLE = -1;
+
+    private static DirectBufferPool instance;
+
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<ByteBuffer>[] free = new ArrayDeque[CLASS_COUNT];
+    private long pooledBytes = 0;
+    private long maxPooledBytes = 16 * 1024 * 1024;
+
+    private ByteBuffer[] buffers = new ByteBuffer[64];
+    private int[] generations = new int[64];
+    private int[] freeSlots = new int[64];
+    private int freeSlotCount = 0;
+    private int slotCount = 0;
+
+    /// debug only
+    private Throwable[] acquiredAt = DEBUG ? new Throwable[64] : null;
+    private long[] acquiredTime = DEBUG ? new long[64] : null;
+
+    private DirectBufferPool()
+    {
+        for (int i = 0; i < CLASS_COUNT; i++)
+        {
+            free[i] = new ArrayDeque<ByteBuffer>();
+        }
+    }
+
+    public static synchronized DirectBufferPool getInstance()
+    {
+        if (instance == null)
+        {
+            instance = new DirectBufferPool();
+            MemoryPressureCoordinator.getInstance().register(instance);
+        }
+
+        return instance;
+    }
+
+    /**
+     * Returns the handle of a cleared buffer with a limit of the given size. The capacity may be larger.
+     */
+    public synchronized int acquire(int size)
+    {
+        ByteBuffer buffer = null;
+        int sizeClass = sizeClassOf(size);
+
+        if (sizeClass < CLASS_COUNT)
+        {
+            buffer = free[sizeClass].pollLast();
+        }
+
+        if (buffer == null)
+        {
+            int capacity = sizeClass < CLASS_COUNT ? 1 << (sizeClass + MIN_SHIFT) : size;
+            buffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+        }
+        else
+        {
+            pooledBytes -= buffer.capacity();
+        }
+
+        buffer.clear();
+        buffer.limit(size);
+
+        int index = allocateSlot();
+        buffers[index] = buffer;
+
+        if (DEBUG)
+        {
+            acquiredAt[index] = new Throwable("Buffer of " + size + " bytes acquired here");
+            acquiredTime[index] = System.currentTimeMillis();
+        }
+
+        return (generations[index] << INDEX_BITS) | index;
+    }
+
+    /**
+     * Returns the buffer of a handle that was acquired and not released yet.
+     */
+    public synchronized ByteBuffer getBuffer(int handle)
+    {
+        return buffers[checkHandle(handle)];
+    }
+
+    /**
+     * Gives the buffer back to the pool. The handle and the buffer must not be used afterwards.
+     */
+    public synchronized void release(int handle)
+    {
+        int index = checkHandle(handle);
+        ByteBuffer buffer = buffers[index];
+
+        buffers[index] = null;
+        generations[index] = (generations[index] + 1) & GENERATION_MASK;
+        freeSlots[freeSlotCount++] = index;
+
+        if (DEBUG)
+        {
+            acquiredAt[index] = null;
+        }
+
+        int sizeClass = sizeClassOf(buffer.capacity());
+        if (sizeClass < CLASS_COUNT && pooledBytes + buffer.capacity() <= maxPooledBytes)
+        {
+            free[sizeClass].addLast(buffer);
+            pooledBytes += buffer.capacity();
+        }
+    }
+
+    /// upper bound of the memory kept in the pool for buffers that are not in use
+    public synchronized void setMaxPooledBytes(long bytes)
+    {
+        maxPooledBytes = bytes;
+        dropPooled(pooledBytes - bytes);
+    }
+
+    public synchronized long getPooledBytes()
+    {
+        return pooledBytes;
+    }
+
+    /// number of buffers acquired and not released
+    public synchronized int getOutstandingCount()
+    {
+        return slotCount - freeSlotCount;
+    }
+
+    /**
+     * Logs every buffer that is acquired and not released, with the stack trace of the acquisition in debug builds.
+     * Does nothing if the pool was never used.
+     */
+    public static void reportLeaks()
+    {
+        DirectBufferPool pool;
+
+        synchronized (DirectBufferPool.class)
+        {
+            pool = instance;
+        }
+
+        if (pool != null)
+        {
+            pool.logOutstanding();
+        }
+    }
+
+    @Override
+    public synchronized long getEstimatedSize()
+    {
+        return pooledBytes;
+    }
+
+    @Override
+    public int getPriority()
+    {
+        return MemoryPressureCoordinator.PRIORITY_POOL;
+    }
+
+    /// only the buffers that are not in use can be given back, the memory is freed once they are collected
+    @Override
+    public synchronized long reclaim(long bytes, int level)
+    {
+        return dropPooled(bytes);
+    }
+
+    private long dropPooled(long bytes)
+    {
+        long dropped = 0;
+
+        /// largest buffers first, they are the most expensive to keep and the cheapest to reallocate per byte
+        for (int sizeClass = CLASS_COUNT - 1; sizeClass >= 0 && dropped < bytes; sizeClass--)
+        {
+            ArrayDeque<ByteBuffer> buffersOfClass = free[sizeClass];
+
+            while (!buffersOfClass.isEmpty() && dropped < bytes)
+            {
+                dropped += buffersOfClass.pollFirst().capacity();
+            }
+        }
+
+        pooledBytes -= dropped;
+        return dropped;
+    }
+
+    private synchronized void logOutstanding()
+    {
+        int outstanding = getOutstandingCount();
+
+        if (outstanding == 0)
+        {
+            return;
+        }
+
+        Log.w(TAG, outstanding + " direct buffers were not released");
+
+        if (!DEBUG)
+        {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        for (int index = 0; index < slotCount; index++)
+        {
+            if (buffers[index] != null)
+            {
+                Log.w(TAG, "Leaked " + buffers[index].capacity() + " bytes, acquired " + (now - acquiredTime[index]) +
+                        "ms ago", acquiredAt[index]);
+            }
+        }
+    }
+
+    private int allocateSlot()
+    {
+        if (freeSlotCount > 0)
+        {
+            return freeSlots[--freeSlotCount];
+        }
+
+        if (slotCount == buffers.length)
+        {
+            if (slotCount > INDEX_MASK)
+            {
+                throw new IllegalStateException("Too many direct buffers in use");
+            }
+
+            int capacity = slotCount * 2;
+            buffers = Arrays.copyOf(buffers, capacity);
+            generations = Arrays.copyOf(generations, capacity);
+            freeSlots = Arrays.copyOf(freeSlots, capacity);
+
+            if (DEBUG)
+            {
+                acquiredAt = Arrays.copyOf(acquiredAt, capacity);
+                acquiredTime = Arrays.copyOf(acquiredTime, capacity);
+            }
+        }
+
+        return slotCount++;
+    }
+
+    private int checkHandle(int handle)
+    {
+        int index = handle & INDEX_MASK;
+
+        if (handle < 0 || index >= slotCount || buffers[index] == null ||
+                generations[index] != ((handle >>> INDEX_BITS) & GENERATION_MASK))
+        {
+            throw new IllegalArgumentException("Invalid or released direct buffer handle " + handle);
+        }
+
+        return index;
+    }
+
+    private static int sizeClassOf(int size)
+    {
+        if (size <= 1 << MIN_SHIFT)
+        {
+            return 0;
+        }
+
+        int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+        return shift > MAX_SHIFT ? CLASS_COUNT : shift - MIN_SHIFT;
+    }
+}
@@ -38,14 +38,13 @@ import android.system.ErrnoException;
 import android.util.Log;
 import android.view.KeyEvent;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.view.Window;
 import android.view.WindowManager;
 import android.widget.FrameLayout;
 import org.haxe.HXCPP;
 
 import java.lang.ref.WeakReference;
-import java.util.ArrayList;
-import java.util.List;
 
 
 public class DuellActivity extends Activity
@@ -53,7 +52,11 @@ public class DuellActivity extends Activity
     private static WeakReference<DuellActivity> activity = new WeakReference<DuellActivity>(null);
 
     private final Handler mainJavaThreadHandler;
-    private MainHaxeThreadHandler mainHaxeThreadHandler;
+    private final BatchingMainHaxeThreadHandler haxeMessageQueue;
+
+    /// null unless <haxe-thread-metrics> is enabled
+    private final InstrumentedMainHaxeThreadHandler haxeThreadMetrics;
+    private final InstrumentedMainHaxeThreadHandler mainThreadMetrics;
 
     /** Exposes the parent so that it can be used to set the content view instead */
     public FrameLayout parent;
@@ -63,7 +66,8 @@ public class DuellActivity extends Activity
     /// libraries that initialize a view, may choose to set this, so that other libraries can act upon this
     public WeakReference<View> mainView;
 
-    private final List<Extension> extensions;
+    private final ExtensionDispatchTable extensions;
+    private final StartupPipeline startupPipeline;
 
     public DuellActivity()
     {
@@ -72,22 +76,39 @@ public class DuellActivity extends Activity
         mainView = new WeakReference<View>(null);
         mainJavaThreadHandler = new Handler();
 
-        // default handler
-        mainHaxeThreadHandler = new MainHaxeThreadHandler()
+        // default handler, batches are delivered on the main thread until a library sets another one
+        haxeMessageQueue = new BatchingMainHaxeThreadHandler(new MainHaxeThreadHandler()
+        {
+            @Override
+            public void queueRunnableOnMainHaxeThread(Runnable runObj)
+            {
+                mainJavaThreadHandler.post(runObj);
+            }
+        });
+        haxeMessageQueue.setFrameBudgetNanos(::PLATFORM.HAXE_FRAME_BUDGET_MICROS:: * 1000L);
+
+        ::if PLATFORM.HAXE_THREAD_METRICS::
+        haxeThreadMetrics = new InstrumentedMainHaxeThreadHandler("haxe", haxeMessageQueue);
+        mainThreadMetrics = new InstrumentedMainHaxeThreadHandler("main", new MainHaxeThreadHandler()
         {
             @Override
             public void queueRunnableOnMainHaxeThread(Runnable runObj)
             {
                 mainJavaThreadHandler.post(runObj);
             }
-        };
+        });
+        ::else::
+        haxeThreadMetrics = null;
+        mainThreadMetrics = null;
+        ::end::
 
         defaultOnBack = true;
 
-        extensions = new ArrayList<Extension>();
+        extensions = new ExtensionDispatchTable();
+        startupPipeline = new StartupPipeline();
 
         ::foreach PLATFORM.ACTIVITY_EXTENSIONS::
-        extensions.add(new ::__current__:: ());::end::
+        addExtension(new ::__current__:: ());::end::
     }
 
     public static DuellActivity getInstance()
@@ -95,10 +116,16 @@ public class DuellActivity extends Activity
         return activity.get();
     }
 
-    protected void onCreate(Bundle state)
+    protected void onCreate(final Bundle state)
     {
         super.onCreate(state);
 
+        /// loaded in dependency order on a background thread while the rest of onCreate runs
+        NativeLibraryLoader nativeLibraries = new NativeLibraryLoader();
+        ::foreach PLATFORM.NDLL_LOAD_ORDER::
+        nativeLibraries.add("::NAME::"::foreach DEPENDENCIES::, "::__current__::"::end::);::end::
+        nativeLibraries.start();
+
         requestWindowFeature(Window.FEATURE_NO_TITLE);
 
         // if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
@@ -121,18 +148,73 @@ public class DuellActivity extends Activity
         ::end::
         ::end::
 
-        ::foreach NDLLS::
-        System.loadLibrary("::NAME::");::end::
-
-        ;parent = new FrameLayout(this);
+        parent = new FrameLayout(this);
         super.setContentView(parent);
 
+        int span = DuellTrace.begin("startup", "loadLibrary join");
+        nativeLibraries.join();
+        DuellTrace.end(span);
+
+        /// read by the haxe test runner on startup
+        TestShard.init(getIntent());
+
+        span = DuellTrace.begin("startup", "HXCPP.run");
         HXCPP.run("HaxeApplication");
+        DuellTrace.end(span);
 
-        for (Extension extension : extensions)
+        for (final Extension extension : extensions.get(ExtensionDispatchTable.ON_CREATE))
         {
-            extension.onCreate(state);
+            startupPipeline.add(extension, extension.getInitMode(), extension.getInitDependencies(), new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    int span = DuellTrace.begin("onCreate", extension);
+                    extension.onCreate(state);
+                    DuellTrace.end(span);
+                }
+            });
         }
+
+        startupPipeline.start();
+        runDeferredInitsAfterFirstFrame();
+    }
+
+    private void runDeferredInitsAfterFirstFrame()
+    {
+        final ViewTreeObserver observer = parent.getViewTreeObserver();
+        observer.addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener()
+        {
+            @Override
+            public boolean onPreDraw()
+            {
+                if (observer.isAlive())
+                {
+                    observer.removeOnPreDrawListener(this);
+                }
+
+                /// posting from the pre draw of the first frame runs after that frame is drawn
+                mainJavaThreadHandler.post(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        startupPipeline.runDeferred();
+
+                        DuellApplication application = DuellApplication.getInstance();
+                        if (application != null)
+                        {
+                            application.runDeferredInits();
+                        }
+
+                        /// the startup is complete at this point
+                        DuellTrace.dump(getFilesDir());
+                    }
+                });
+
+                return true;
+            }
+        });
     }
 
     ::if (PLATFORM.FULLSCREEN)::
@@ -167,9 +249,13 @@ public class DuellActivity extends Activity
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data)
     {
-        for (Extension extension : extensions)
+        for (Extension extension : extensions.get(ExtensionDispatchTable.ON_ACTIVITY_RESULT))
         {
-            if (extension.onActivityResult(requestCode, resultCode, data))
+            int span = DuellTrace.begin("onActivityResult", extension);
+            boolean handled = extension.onActivityResult(requestCode, resultCode, data);
+            DuellTrace.end(span);
+
+            if (handled)
             {
                 return;
             }
@@ -181,14 +267,21 @@ public class DuellActivity extends Activity
     @Override
     protected void onDestroy()
     {
-        for (Extension extension : extensions)
+        for (Extension extension : extensions.get(ExtensionDispatchTable.ON_DESTROY))
         {
+            int span = DuellTrace.begin("onDestroy", extension);
             extension.onDestroy();
+            DuellTrace.end(span);
         }
 
         activity = new WeakReference<DuellActivity>(null);
         super.onDestroy();
 
+        if (DirectBufferPool.DEBUG)
+        {
+            DirectBufferPool.reportLeaks();
+        }
+
         /// Application should not exist if this activity is killed
         /// If we do not kill the application, the static variables will
         /// continue to live, but most importantly, the native libraries
@@ -202,18 +295,22 @@ public class DuellActivity extends Activity
     {
         super.onLowMemory();
 
-        for (Extension extension : extensions)
+        for (Extension extension : extensions.get(ExtensionDispatchTable.ON_LOW_MEMORY))
         {
+            int span = DuellTrace.begin("onLowMemory", extension);
             extension.onLowMemory();
+            DuellTrace.end(span);
         }
     }
 
     @Override
     protected void onNewIntent(final Intent intent)
     {
-        for (Extension extension : extensions)
+        for (Extension extension : extensions.get(ExtensionDispatchTable.ON_NEW_INTENT))
         {
+            int span = DuellTrace.begin("onNewIntent", extension);
             extension.onNewIntent(intent);
+            DuellTrace.end(span);
         }
 
         super.onNewIntent(intent);
@@ -224,9 +321,11 @@ public class DuellActivity extends Activity
     {
         super.onPause();
 
-        for (Extension extension : extensions)
+        for (Extension extension : extensions.get(ExtensionDispatchTable.ON_PAUSE))
         {
+            int span = DuellTrace.begin("onPause", extension);
             extension.onPause();
+            DuellTrace.end(span);
         }
     }
 
@@ -235,9 +334,11 @@ public class DuellActivity extends Activity
     {
         super.onRestart();
 
-        for (Extension extension : extensions)
+        for (Extension extension : extensions.get(ExtensionDispatchTable.ON_RESTART))
         {
+            int span = DuellTrace.begin("onRestart", extension);
             extension.onRestart();
+            DuellTrace.end(span);
         }
     }
 
@@ -246,9 +347,11 @@ public class DuellActivity extends Activity
     {
         super.onResume();
 
-        for (Extension extension : extensions)
+        for (Extension extension : extensions.get(ExtensionDispatchTable.ON_RESUME))
         {
+            int span = DuellTrace.begin("onResume", extension);
             extension.onResume();
+            DuellTrace.end(span);
         }
     }
 
@@ -264,9 +367,11 @@ public class DuellActivity extends Activity
         }
         ::end::::end::
 
-        for (Extension extension : extensions)
+        for (Extension extension : extensions.get(ExtensionDispatchTable.ON_START))
         {
+            int span = DuellTrace.begin("onStart", extension);
             extension.onStart();
+            DuellTrace.end(span);
         }
     }
 
@@ -275,9 +380,11 @@ public class DuellActivity extends Activity
     {
         super.onStop();
 
-        for (Extension extension : extensions)
+        for (Extension extension : extensions.get(ExtensionDispatchTable.ON_STOP))
         {
+            int span = DuellTrace.begin("onStop", extension);
             extension.onStop();
+            DuellTrace.end(span);
         }
     }
 
@@ -286,18 +393,22 @@ public class DuellActivity extends Activity
     {
         super.onSaveInstanceState(outState);
 
-        for (Extension extension : extensions)
+        for (Extension extension : extensions.get(ExtensionDispatchTable.ON_SAVE_INSTANCE_STATE))
         {
+            int span = DuellTrace.begin("onSaveInstanceState", extension);
             extension.onSaveInstanceState(outState);
+            DuellTrace.end(span);
         }
     }
 
     @Override
     public boolean onKeyDown(int keyCode, KeyEvent event)
     {
-        for (Extension extension : extensions)
+        for (Extension extension : extensions.get(ExtensionDispatchTable.ON_KEY_DOWN))
         {
+            int span = DuellTrace.begin("onKeyDown", extension);
             extension.onKeyDown(keyCode, event);
+            DuellTrace.end(span);
         }
 
         return super.onKeyDown(keyCode, event);
@@ -306,9 +417,11 @@ public class DuellActivity extends Activity
     @Override
     public boolean onKeyUp(int keyCode, KeyEvent event)
     {
-        for (Extension extension : extensions)
+        for (Extension extension : extensions.get(ExtensionDispatchTable.ON_KEY_UP))
         {
+            int span = DuellTrace.begin("onKeyUp", extension);
             extension.onKeyUp(keyCode, event);
+            DuellTrace.end(span);
         }
 
         return super.onKeyUp(keyCode, event);
@@ -320,18 +433,34 @@ public class DuellActivity extends Activity
     {
         super.onTrimMemory(level);
 
-        for (Extension extension : extensions)
+        for (Extension extension : extensions.get(ExtensionDispatchTable.ON_TRIM_MEMORY))
         {
+            int span = DuellTrace.begin("onTrimMemory", extension);
             extension.onTrimMemory(level);
+            DuellTrace.end(span);
+        }
+
+        if (haxeThreadMetrics != null)
+        {
+            haxeThreadMetrics.dump();
+            mainThreadMetrics.dump();
         }
     }
     ::end::
 
+    /// extensions only receive the callbacks they override, see ExtensionDispatchTable
     public void registerExtension(Extension extension)
     {
-        if (extensions.indexOf(extension) == -1)
+        addExtension(extension);
+    }
+
+    private void addExtension(Extension extension)
+    {
+        extensions.add(extension);
+
+        if (extension instanceof ReclaimableResource)
         {
-            extensions.add(extension);
+            MemoryPressureCoordinator.getInstance().register((ReclaimableResource) extension);
         }
     }
 
@@ -341,18 +470,59 @@ public class DuellActivity extends Activity
     /// defaults to itself
     public void queueOnHaxeThread(Runnable run)
     {
-        mainHaxeThreadHandler.queueRunnableOnMainHaxeThread(run);
+        if (haxeThreadMetrics != null)
+        {
+            run = haxeThreadMetrics.wrap(run);
+        }
+
+        haxeMessageQueue.queueRunnableOnMainHaxeThread(run);
+    }
+
+    /// same as queueOnHaxeThread, but in one of the BatchingMainHaxeThreadHandler.LANE_* priority lanes.
+    /// e.g. analytics or store callbacks should use LANE_BACKGROUND, so that they don't hold up input.
+    public void queueOnHaxeThread(int lane, Runnable run)
+    {
+        if (haxeThreadMetrics != null)
+        {
+            run = haxeThreadMetrics.wrap(run);
+        }
+
+        haxeMessageQueue.queueRunnableOnMainHaxeThread(lane, run);
+    }
+
+    /// allocation free alternative to queueOnHaxeThread for high frequency events, see BatchingMainHaxeThreadHandler
+    public BatchingMainHaxeThreadHandler getHaxeMessageQueue()
+    {
+        return haxeMessageQueue;
     }
 
     /// if you want to force some callback to be executed on the main thread
     public void queueOnMainThread(Runnable run)
     {
+        if (mainThreadMetrics != null)
+        {
+            run = mainThreadMetrics.wrap(run);
+        }
+
         mainJavaThreadHandler.post(run);
     }
 
+    /// metrics of the runnables queued with queueOnHaxeThread, null unless <haxe-thread-metrics> is enabled
+    public InstrumentedMainHaxeThreadHandler getHaxeThreadMetrics()
+    {
+        return haxeThreadMetrics;
+    }
+
+    /// metrics of the runnables queued with queueOnMainThread, null unless <haxe-thread-metrics> is enabled
+    public InstrumentedMainHaxeThreadHandler getMainThreadMetrics()
+    {
+        return mainThreadMetrics;
+    }
+
+    /// the handler is used to wake up the haxe thread, messages are still batched by the haxe message queue
     public void setMainHaxeThreadHandler(MainHaxeThreadHandler handler)
     {
-        mainHaxeThreadHandler = handler;
+        haxeMessageQueue.setTarget(handler);
     }
 
     @Override
@@ -364,9 +534,11 @@ public class DuellActivity extends Activity
     @Override
     public void onBackPressed()
     {
-        for (Extension extension : extensions)
+        for (Extension extension : extensions.get(ExtensionDispatchTable.ON_BACK_PRESSED))
         {
+            int span = DuellTrace.begin("onBackPressed", extension);
             extension.onBackPressed();
+            DuellTrace.end(span);
         }
 
         if (defaultOnBack)
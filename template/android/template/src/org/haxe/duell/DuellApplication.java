@@ -32,6 +32,8 @@ import java.util.List;
 
 import android.app.Application;
 import android.content.res.Configuration;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.support.multidex.MultiDexApplication;
 
 import org.haxe.duell.DuellApplicationExtension;
@@ -48,15 +50,29 @@ public class DuellApplication extends MultiDexApplication
     }
 
     private final List<DuellApplicationExtension> extensions;
+    private final StartupPipeline startupPipeline;
 
     public DuellApplication()
     {
+        int span = DuellTrace.begin("startup", "DuellApplication.<init>");
+
         application = new WeakReference<DuellApplication>(this);
 
         extensions = new ArrayList<DuellApplicationExtension>();
+        startupPipeline = new StartupPipeline();
 
         ::foreach PLATFORM.APPLICATION_EXTENSIONS::
         extensions.add(new ::__current__:: ());::end::
+
+        for (DuellApplicationExtension extension : extensions)
+        {
+            if (extension instanceof ReclaimableResource)
+            {
+                MemoryPressureCoordinator.getInstance().register((ReclaimableResource) extension);
+            }
+        }
+
+        DuellTrace.end(span);
     }
 
     @Override
@@ -65,7 +81,9 @@ public class DuellApplication extends MultiDexApplication
         super.onConfigurationChanged(newConfig);
         for (DuellApplicationExtension extension : extensions)
         {
+            int span = DuellTrace.begin("onConfigurationChanged", extension);
             extension.onConfigurationChanged(newConfig);
+            DuellTrace.end(span);
         }
     }
 
@@ -73,19 +91,56 @@ public class DuellApplication extends MultiDexApplication
     public void onCreate()
     {
         super.onCreate();
-        for (DuellApplicationExtension extension : extensions)
+
+        /// before the activity loads the native libraries
+        FastDeploy.install(this);
+
+        for (final DuellApplicationExtension extension : extensions)
         {
-            extension.onCreate();
+            startupPipeline.add(extension, extension.getInitMode(), extension.getInitDependencies(), new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    int span = DuellTrace.begin("onCreate", extension);
+                    extension.onCreate();
+                    DuellTrace.end(span);
+                }
+            });
         }
+
+        startupPipeline.start();
+
+        /// the activity runs them after its first frame, this covers processes without an activity
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler()
+        {
+            @Override
+            public boolean queueIdle()
+            {
+                runDeferredInits();
+                return false;
+            }
+        });
+    }
+
+    /// runs the deferred application extension inits, only the first call has an effect
+    public void runDeferredInits()
+    {
+        startupPipeline.runDeferred();
     }
 
     @Override
     public void onLowMemory()
     {
         super.onLowMemory();
+
+        MemoryPressureCoordinator.getInstance().trim(MemoryPressureCoordinator.LEVEL_LOW_MEMORY);
+
         for (DuellApplicationExtension extension : extensions)
         {
+            int span = DuellTrace.begin("onLowMemory", extension);
             extension.onLowMemory();
+            DuellTrace.end(span);
         }
     }
 
@@ -95,7 +150,9 @@ public class DuellApplication extends MultiDexApplication
         super.onTerminate();
         for (DuellApplicationExtension extension : extensions)
         {
+            int span = DuellTrace.begin("onTerminate", extension);
             extension.onTerminate();
+            DuellTrace.end(span);
         }
     }
 
@@ -104,9 +161,15 @@ public class DuellApplication extends MultiDexApplication
     public void onTrimMemory(int level)
     {
         super.onTrimMemory(level);
+
+        /// registered resources are reclaimed here for the whole process, before the extensions are notified
+        MemoryPressureCoordinator.getInstance().trim(level);
+
         for (DuellApplicationExtension extension : extensions)
         {
+            int span = DuellTrace.begin("onTrimMemory", extension);
             extension.onTrimMemory(level);
+            DuellTrace.end(span);
         }
     }
     ::end::
@@ -30,6 +30,24 @@ import android.content.res.Configuration;
 
 public abstract class DuellApplicationExtension
 {
+    /**
+     * How {@link #onCreate} is scheduled, one of the StartupPipeline.INIT_* constants. INIT_CRITICAL (the default)
+     * runs it before the application's onCreate returns, INIT_BACKGROUND on a background thread in parallel with other
+     * inits, and INIT_DEFERRED on the main thread once it is idle after startup.
+     */
+    public int getInitMode()
+    {
+        return StartupPipeline.INIT_CRITICAL;
+    }
+
+    /**
+     * Application extension classes whose {@link #onCreate} has to complete before this one's starts.
+     */
+    public Class<?>[] getInitDependencies()
+    {
+        return null;
+    }
+
     public void onConfigurationChanged(Configuration newConfig)
     {
     }
@@ -0,0 +1,564 @@
+/*
+ * Copyright (c) 2003-2016, GameDuell GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.haxe.duell;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Size aware in-memory cache shared by all extensions, so that their caches have one global byte budget instead of
+ * each growing on its own.
+ * <p/>
+ * Every extension works in its own {@link Namespace}, which has a quota within the global budget. Values are either
+ * ByteBuffers (direct buffers keep the data off the java heap) or any object with a size given by the caller.
+ * Eviction is segmented LRU: new entries start in a probation segment and move to the protected segment when they
+ * are hit again, so one pass over many entries cannot flush the entries that are used all the time. When the global
+ * budget is exceeded the least recently used probation entry over all namespaces goes first. The protected segment
+ * of a namespace is limited to a share of its quota or of the global budget, whichever is smaller, so probation
+ * always keeps room for new entries.
+ * <p/>
+ * The cache registers with the MemoryPressureCoordinator and shrinks on onTrimMemory and onLowMemory.
+ */
+public final class DuellCache implements ReclaimableResource
+{
+    /// share of a namespace quota that can be taken by the protected segment
+    private static final double PROTECTED_SHARE = 0.8;
+
+    private static DuellCache instance;
+
+    private final Map<String, Namespace> namespaces = new HashMap<String, Namespace>();
+    private final List<Namespace> namespaceList = new ArrayList<Namespace>();
+
+    private long budget;
+    private long size = 0;
+    private long clock = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    private static final class Entry
+    {
+        final String key;
+        final Object value;
+        final long size;
+        long lastAccess;
+        boolean isProtected;
+
+        Entry(String key, Object value, long size)
+        {
+            this.key = key;
+            this.value = value;
+            this.size = size;
+        }
+    }
+
+    /**
+     * The part of the cache used by one extension. Keys only have to be unique within a namespace.
+     */
+    public final class Namespace
+    {
+        private final String name;
+        private long quota;
+
+        /// both in least recently used first order
+        private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+        private final LinkedHashMap<String, Entry> protectedSegment = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+        private long size = 0;
+        private long protectedSize = 0;
+
+        private long hits = 0;
+        private long misses = 0;
+        private long evictions = 0;
+
+        private Namespace(String name, long quota)
+        {
+            this.name = name;
+            this.quota = quota;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        /// returns the cached buffer, or null. The buffer is shared, use duplicate() to read it from several threads.
+        public ByteBuffer getBuffer(String key)
+        {
+            return (ByteBuffer) get(key);
+        }
+
+        public Object get(String key)
+        {
+            synchronized (DuellCache.this)
+            {
+                Entry entry = protectedSegment.get(key);
+
+                if (entry == null)
+                {
+                    entry = probation.remove(key);
+
+                    if (entry != null)
+                    {
+                        promote(entry);
+                    }
+                }
+
+                if (entry == null)
+                {
+                    misses++;
+                    DuellCache.this.misses++;
+                    return null;
+                }
+
+                hits++;
+                DuellCache.this.hits++;
+                entry.lastAccess = ++clock;
+                return entry.value;
+            }
+        }
+
+        /// the size of the entry is the capacity of the buffer
+        public boolean put(String key, ByteBuffer buffer)
+        {
+            return put(key, buffer, buffer.capacity());
+        }
+
+        /**
+         * Caches the value with the given size in bytes and returns false if it is larger than the quota of the
+         * namespace or the budget of the cache, in which case it is not cached.
+         */
+        public boolean put(String key, Object value, long bytes)
+        {
+            synchronized (DuellCache.this)
+            {
+                remove(key);
+
+                if (bytes > quota || bytes > budget)
+                {
+                    return false;
+                }
+
+                Entry entry = new Entry(key, value, bytes);
+                entry.lastAccess = ++clock;
+                probation.put(key, entry);
+                size += bytes;
+                DuellCache.this.size += bytes;
+
+                while (size > quota)
+                {
+                    evictOne();
+                }
+
+                trimToBudget();
+                return true;
+            }
+        }
+
+        public Object remove(String key)
+        {
+            synchronized (DuellCache.this)
+            {
+                Entry entry = probation.remove(key);
+
+                if (entry == null)
+                {
+                    entry = protectedSegment.remove(key);
+                }
+
+                if (entry == null)
+                {
+                    return null;
+                }
+
+                forget(entry);
+                return entry.value;
+            }
+        }
+
+        public void clear()
+        {
+            synchronized (DuellCache.this)
+            {
+                DuellCache.this.size -= size;
+                probation.clear();
+                protectedSegment.clear();
+                size = 0;
+                protectedSize = 0;
+            }
+        }
+
+        public void setQuota(long bytes)
+        {
+            if (bytes < 0)
+            {
+                throw new IllegalArgumentException("Quota of namespace " + name + " can't be negative, got " + bytes);
+            }
+
+            synchronized (DuellCache.this)
+            {
+                quota = bytes;
+                demoteOverflow();
+
+                while (size > quota)
+                {
+                    evictOne();
+                }
+            }
+        }
+
+        public long getQuota()
+        {
+            synchronized (DuellCache.this)
+            {
+                return quota;
+            }
+        }
+
+        public long getSize()
+        {
+            synchronized (DuellCache.this)
+            {
+                return size;
+            }
+        }
+
+        public long getHitCount()
+        {
+            synchronized (DuellCache.this)
+            {
+                return hits;
+            }
+        }
+
+        public long getMissCount()
+        {
+            synchronized (DuellCache.this)
+            {
+                return misses;
+            }
+        }
+
+        public long getEvictionCount()
+        {
+            synchronized (DuellCache.this)
+            {
+                return evictions;
+            }
+        }
+
+        private void promote(Entry entry)
+        {
+            entry.isProtected = true;
+            protectedSegment.put(entry.key, entry);
+            protectedSize += entry.size;
+            demoteOverflow();
+        }
+
+        /// the protected segment overflows into the most recently used end of probation
+        private void demoteOverflow()
+        {
+            long limit = (long) (Math.min(quota, budget) * PROTECTED_SHARE);
+
+            while (protectedSize > limit && !protectedSegment.isEmpty())
+            {
+                Entry demoted = removeEldest(protectedSegment);
+                demoted.isProtected = false;
+                protectedSize -= demoted.size;
+                probation.put(demoted.key, demoted);
+            }
+        }
+
+        private Entry eldest()
+        {
+            if (!probation.isEmpty())
+            {
+                return probation.values().iterator().next();
+            }
+
+            if (!protectedSegment.isEmpty())
+            {
+                return protectedSegment.values().iterator().next();
+            }
+
+            return null;
+        }
+
+        /// the least recently used entry of either segment
+        private Entry eldestOfAll()
+        {
+            Entry entry = eldest();
+
+            if (entry != null && !entry.isProtected && !protectedSegment.isEmpty())
+            {
+                Entry eldestProtected = protectedSegment.values().iterator().next();
+
+                if (eldestProtected.lastAccess < entry.lastAccess)
+                {
+                    return eldestProtected;
+                }
+            }
+
+            return entry;
+        }
+
+        private long evictOne()
+        {
+            return evict(eldest());
+        }
+
+        private long evict(Entry entry)
+        {
+            if (entry == null)
+            {
+                return 0;
+            }
+
+            if (entry.isProtected)
+            {
+                protectedSegment.remove(entry.key);
+            }
+            else
+            {
+                probation.remove(entry.key);
+            }
+
+            forget(entry);
+            evictions++;
+            DuellCache.this.evictions++;
+            return entry.size;
+        }
+
+        private void forget(Entry entry)
+        {
+            size -= entry.size;
+            DuellCache.this.size -= entry.size;
+
+            if (entry.isProtected)
+            {
+                protectedSize -= entry.size;
+            }
+        }
+    }
+
+    private DuellCache(long budget)
+    {
+        this.budget = budget;
+    }
+
+    /**
+     * Returns the shared cache, created with an eighth of the maximum heap size as budget.
+     */
+    public static synchronized DuellCache getInstance()
+    {
+        if (instance == null)
+        {
+            instance = new DuellCache(Runtime.getRuntime().maxMemory() / 8);
+            MemoryPressureCoordinator.getInstance().register(instance);
+        }
+
+        return instance;
+    }
+
+    /**
+     * Returns the namespace with the given name, creating it if needed. The quota of an existing namespace is updated.
+     */
+    public synchronized Namespace getNamespace(String name, long quota)
+    {
+        if (quota < 0)
+        {
+            throw new IllegalArgumentException("Quota of namespace " + name + " can't be negative, got " + quota);
+        }
+
+        Namespace namespace = namespaces.get(name);
+
+        if (namespace == null)
+        {
+            namespace = new Namespace(name, quota);
+            namespaces.put(name, namespace);
+            namespaceList.add(namespace);
+        }
+        else
+        {
+            namespace.setQuota(quota);
+        }
+
+        return namespace;
+    }
+
+    /// namespace without a quota of its own, limited by the global budget only
+    public Namespace getNamespace(String name)
+    {
+        return getNamespace(name, Long.MAX_VALUE);
+    }
+
+    public synchronized void setBudget(long bytes)
+    {
+        if (bytes < 0)
+        {
+            throw new IllegalArgumentException("Cache budget can't be negative, got " + bytes);
+        }
+
+        budget = bytes;
+
+        for (Namespace namespace : namespaceList)
+        {
+            namespace.demoteOverflow();
+        }
+
+        trimToBudget();
+    }
+
+    public synchronized long getBudget()
+    {
+        return budget;
+    }
+
+    public synchronized long getSize()
+    {
+        return size;
+    }
+
+    public synchronized long getHitCount()
+    {
+        return hits;
+    }
+
+    public synchronized long getMissCount()
+    {
+        return misses;
+    }
+
+    public synchronized long getEvictionCount()
+    {
+        return evictions;
+    }
+
+    /// "size/budget hits misses evictions" of the cache and every namespace, for logging
+    public synchronized String getStatistics()
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append("cache ").append(size).append('/').append(budget).append(" bytes, ").append(hits)
+                .append(" hits, ").append(misses).append(" misses, ").append(evictions).append(" evictions");
+
+        for (Namespace namespace : namespaceList)
+        {
+            builder.append("; ").append(namespace.name).append(' ').append(namespace.size).append(" bytes, ")
+                    .append(namespace.hits).append(" hits, ").append(namespace.misses).append(" misses, ")
+                    .append(namespace.evictions).append(" evictions");
+        }
+
+        return builder.toString();
+    }
+
+    @Override
+    public synchronized long getEstimatedSize()
+    {
+        return size;
+    }
+
+    @Override
+    public int getPriority()
+    {
+        return MemoryPressureCoordinator.PRIORITY_CACHE;
+    }
+
+    @Override
+    public synchronized long reclaim(long bytes, int level)
+    {
+        long freed = 0;
+
+        while (freed < bytes && size > 0)
+        {
+            freed += evictLeastRecentlyUsed();
+        }
+
+        return freed;
+    }
+
+    private void trimToBudget()
+    {
+        while (size > budget)
+        {
+            evictLeastRecentlyUsed();
+        }
+    }
+
+    /**
+     * Evicts the eldest entry over all namespaces, probation entries before protected ones. The protected segments of
+     * several namespaces can together take more than their share of the budget, then the eldest entry goes whichever
+     * segment it is in, as otherwise every new entry would be the first one evicted.
+     */
+    private long evictLeastRecentlyUsed()
+    {
+        Namespace victim = null;
+        Entry victimEntry = null;
+        long protectedSize = 0;
+
+        for (Namespace namespace : namespaceList)
+        {
+            protectedSize += namespace.protectedSize;
+        }
+
+        boolean probationFirst = protectedSize <= budget * PROTECTED_SHARE;
+
+        for (Namespace namespace : namespaceList)
+        {
+            Entry entry = probationFirst ? namespace.eldest() : namespace.eldestOfAll();
+
+            if (entry == null)
+            {
+                continue;
+            }
+
+            if (victimEntry == null || (probationFirst && victimEntry.isProtected && !entry.isProtected) ||
+                    ((!probationFirst || victimEntry.isProtected == entry.isProtected) &&
+                            entry.lastAccess < victimEntry.lastAccess))
+            {
+                victim = namespace;
+                victimEntry = entry;
+            }
+        }
+
+        return victim == null ? 0 : victim.evict(victimEntry);
+    }
+
+    private static Entry removeEldest(LinkedHashMap<String, Entry> segment)
+    {
+        Iterator<Entry> iterator = segment.values().iterator();
+        Entry entry = iterator.next();
+        iterator.remove();
+        return entry;
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2003-2016, GameDuell GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.haxe.duell;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lightweight span tracing of the startup and of every callback the framework dispatches to extensions.
+ * <p/>
+ * Spans are recorded with nanosecond timestamps into a preallocated ring buffer, the oldest spans are overwritten
+ * once it is full. Enable it with &lt;tracing value="true"/&gt; in the android section of the project. When disabled,
+ * {@link #ENABLED} is a compile time constant and {@link #begin} and {@link #end} return right away.
+ * <p/>
+ * The buffer can be exported in the Chrome trace event format (chrome://tracing, Perfetto) or as a compact binary dump.
+ */
+public final class DuellTrace
+{
+    private static final String TAG = "DuellTrace";
+
+    public static final boolean ENABLED = ::if PLATFORM.TRACING::true::else::false::end::;
+
+    private static final int CAPACITY = 4096;
+    private static final int MASK = CAPACITY - 1;
+
+    private static final int BINARY_MAGIC = 0x44545243; /// "DTRC"
+    private static final int BINARY_VERSION = 1;
+
+    private static final AtomicInteger next = new AtomicInteger(0);
+    private static final int[] sequences = new int[CAPACITY];
+    private static final long[] starts = new long[CAPACITY];
+    private static final long[] ends = new long[CAPACITY];
+    private static final int[] threadIds = new int[CAPACITY];
+    private static final String[] categories = new String[CAPACITY];
+    private static final String[] names = new String[CAPACITY];
+
+    private DuellTrace()
+    {
+    }
+
+    /**
+     * Starts a span and returns the token to pass to {@link #end}, or -1 when tracing is disabled.
+     */
+    public static int begin(String category, String name)
+    {
+        if (!ENABLED)
+        {
+            return -1;
+        }
+
+        int sequence = next.getAndIncrement() & Integer.MAX_VALUE;
+        int index = sequence & MASK;
+
+        sequences[index] = sequence;
+        categories[index] = category;
+        names[index] = name;
+        threadIds[index] = Process.myTid();
+        ends[index] = 0;
+        starts[index] = System.nanoTime();
+
+        return sequence;
+    }
+
+    /**
+     * Starts a span named after the class of the given extension.
+     */
+    public static int begin(String category, Object extension)
+    {
+        if (!ENABLED)
+        {
+            return -1;
+        }
+
+        return begin(category, extension.getClass().getName());
+    }
+
+    public static void end(int span)
+    {
+        if (!ENABLED || span < 0)
+        {
+            return;
+        }
+
+        int index = span & MASK;
+
+        /// the slot was reused by a newer span in the meantime
+        if (sequences[index] != span)
+        {
+            return;
+        }
+
+        ends[index] = System.nanoTime();
+    }
+
+    /**
+     * Writes the completed spans as a Chrome trace event JSON document.
+     */
+    public static void writeChromeTrace(Writer writer) throws IOException
+    {
+        int pid = Process.myPid();
+        boolean first = true;
+
+        writer.write("{\"traceEvents\":[");
+
+        int last = next.get();
+        for (int sequence = Math.max(0, last - CAPACITY); sequence < last; sequence++)
+        {
+            int index = sequence & MASK;
+            long start = starts[index];
+            long end = ends[index];
+
+            if (sequences[index] != sequence || end == 0)
+            {
+                continue;
+            }
+
+            if (!first)
+            {
+                writer.write(",");
+            }
+            first = false;
+
+            writer.write("\n{\"ph\":\"X\",\"cat\":\"");
+            writeEscaped(writer, categories[index]);
+            writer.write("\",\"name\":\"");
+            writeEscaped(writer, names[index]);
+            writer.write("\",\"pid\":" + pid + ",\"tid\":" + threadIds[index]);
+            writer.write(",\"ts\":" + (start / 1000) + "." + String.format("%03d", start % 1000));
+            writer.write(",\"dur\":" + ((end - start) / 1000) + "." + String.format("%03d", (end - start) % 1000) + "}");
+        }
+
+        writer.write("\n]}\n");
+        writer.flush();
+    }
+
+    /**
+     * Writes the completed spans in the binary format: magic, version and span count as ints, followed per span by
+     * start and duration in nanoseconds as longs, the thread id as int, and category and name as modified UTF-8.
+     */
+    public static void writeBinary(OutputStream output) throws IOException
+    {
+        DataOutputStream data = new DataOutputStream(output);
+
+        int last = next.get();
+        int first = Math.max(0, last - CAPACITY);
+
+        int count = 0;
+        for (int sequence = first; sequence < last; sequence++)
+        {
+            int index = sequence & MASK;
+            if (sequences[index] == sequence && ends[index] != 0)
+            {
+                count++;
+            }
+        }
+
+        data.writeInt(BINARY_MAGIC);
+        data.writeInt(BINARY_VERSION);
+        data.writeInt(count);
+
+        for (int sequence = first; sequence < last && count > 0; sequence++)
+        {
+            int index = sequence & MASK;
+            long start = starts[index];
+            long end = ends[index];
+
+            if (sequences[index] != sequence || end == 0)
+            {
+                continue;
+            }
+
+            data.writeLong(start);
+            data.writeLong(end - start);
+            data.writeInt(threadIds[index]);
+            data.writeUTF(categories[index]);
+            data.writeUTF(names[index]);
+            count--;
+        }
+
+        data.flush();
+    }
+
+    /**
+     * Writes duell_trace.json and duell_trace.bin into the given directory on the startup pool.
+     */
+    public static void dump(final File directory)
+    {
+        if (!ENABLED || directory == null)
+        {
+            return;
+        }
+
+        StartupPipeline.getExecutor().execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(directory, "duell_trace.json")), "UTF-8"));
+                    try
+                    {
+                        writeChromeTrace(writer);
+                    }
+                    finally
+                    {
+                        writer.close();
+                    }
+
+                    OutputStream output = new BufferedOutputStream(new FileOutputStream(new File(directory, "duell_trace.bin")));
+                    try
+                    {
+                        writeBinary(output);
+                    }
+                    finally
+                    {
+                        output.close();
+                    }
+
+                    Log.d(TAG, "Trace written to " + directory.getAbsolutePath());
+                }
+                catch (IOException e)
+                {
+                    Log.e(TAG, "Could not write the trace", e);
+                }
+            }
+        });
+    }
+
+    private static void writeEscaped(Writer writer, String value) throws IOException
+    {
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+
+            if (c == '"' || c == '\\')
+            {
+                writer.write('\\');
+                writer.write(c);
+            }
+            else if (c < 0x20)
+            {
+                writer.write(String.format("\\u%04x", (int) c));
+            }
+            else
+            {
+                writer.write(c);
+            }
+        }
+    }
+}
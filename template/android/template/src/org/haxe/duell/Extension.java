@@ -33,6 +33,27 @@ import android.view.KeyEvent;
 
 
 public class Extension {
+    /**
+     * How {@link #onCreate} is scheduled during startup, one of the StartupPipeline.INIT_* constants.
+     * <p/>
+     * INIT_CRITICAL (the default) runs it on the UI thread before the activity's onCreate returns. INIT_BACKGROUND runs
+     * it on a background thread in parallel with other inits, so it must not touch views, and onStart or onResume may
+     * be called before it completes. INIT_DEFERRED runs it on the UI thread after the first frame.
+     */
+    public int getInitMode()
+    {
+        return StartupPipeline.INIT_CRITICAL;
+    }
+
+    /**
+     * Extension classes whose {@link #onCreate} has to complete before this one's starts. Critical and background
+     * inits cannot depend on deferred ones.
+     */
+    public Class<?>[] getInitDependencies()
+    {
+        return null;
+    }
+
     /**
      * Called when an activity you launched exits, giving you the requestCode you started it with, the resultCode it
      * returned, and any additional data from it.
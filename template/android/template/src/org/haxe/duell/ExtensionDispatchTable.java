@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2003-2016, GameDuell GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.haxe.duell;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.view.KeyEvent;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps, for every Extension callback, a compact array with only the extensions that override it.
+ * <p/>
+ * Overrides are found once per extension class via reflection when the extension is added, so dispatching an event
+ * neither walks extensions that would run the empty base implementation nor allocates an iterator.
+ */
+final class ExtensionDispatchTable
+{
+    static final int ON_ACTIVITY_RESULT = 0;
+    static final int ON_CREATE = 1;
+    static final int ON_DESTROY = 2;
+    static final int ON_LOW_MEMORY = 3;
+    static final int ON_NEW_INTENT = 4;
+    static final int ON_PAUSE = 5;
+    static final int ON_RESTART = 6;
+    static final int ON_RESUME = 7;
+    static final int ON_START = 8;
+    static final int ON_STOP = 9;
+    static final int ON_SAVE_INSTANCE_STATE = 10;
+    static final int ON_TRIM_MEMORY = 11;
+    static final int ON_KEY_DOWN = 12;
+    static final int ON_KEY_UP = 13;
+    static final int ON_BACK_PRESSED = 14;
+    static final int CALLBACK_COUNT = 15;
+
+    private static final String[] CALLBACK_NAMES = {
+        "onActivityResult", "onCreate", "onDestroy", "onLowMemory", "onNewIntent", "onPause", "onRestart", "onResume",
+        "onStart", "onStop", "onSaveInstanceState", "onTrimMemory", "onKeyDown", "onKeyUp", "onBackPressed"
+    };
+
+    private static final Class<?>[][] CALLBACK_PARAMETERS = {
+        {int.class, int.class, Intent.class}, {Bundle.class}, {}, {}, {Intent.class}, {}, {}, {},
+        {}, {}, {Bundle.class}, {int.class}, {int.class, KeyEvent.class}, {int.class, KeyEvent.class}, {}
+    };
+
+    private static final Extension[] EMPTY = new Extension[0];
+
+    /// override masks per extension class, shared between activity instances
+    private static final Map<Class<?>, Integer> masksByClass = new HashMap<Class<?>, Integer>();
+
+    /// every extension in registration order
+    private Extension[] all;
+    private final Extension[][] byCallback;
+
+    ExtensionDispatchTable()
+    {
+        all = EMPTY;
+        byCallback = new Extension[CALLBACK_COUNT][];
+
+        for (int callback = 0; callback < CALLBACK_COUNT; callback++)
+        {
+            byCallback[callback] = EMPTY;
+        }
+    }
+
+    /// returns false if the extension was already registered
+    boolean add(Extension extension)
+    {
+        for (Extension registered : all)
+        {
+            if (registered.equals(extension))
+            {
+                return false;
+            }
+        }
+
+        all = append(all, extension);
+
+        int mask = overrideMask(extension.getClass());
+
+        for (int callback = 0; callback < CALLBACK_COUNT; callback++)
+        {
+            if ((mask & (1 << callback)) != 0)
+            {
+                byCallback[callback] = append(byCallback[callback], extension);
+            }
+        }
+
+        return true;
+    }
+
+    /// the returned array must not be modified
+    Extension[] get(int callback)
+    {
+        return byCallback[callback];
+    }
+
+    /// the returned array must not be modified
+    Extension[] all()
+    {
+        return all;
+    }
+
+    private static Extension[] append(Extension[] array, Extension extension)
+    {
+        Extension[] result = new Extension[array.length + 1];
+        System.arraycopy(array, 0, result, 0, array.length);
+        result[array.length] = extension;
+        return result;
+    }
+
+    private static int overrideMask(Class<?> extensionClass)
+    {
+        synchronized (masksByClass)
+        {
+            Integer cached = masksByClass.get(extensionClass);
+
+            if (cached != null)
+            {
+                return cached;
+            }
+
+            int mask = 0;
+
+            for (int callback = 0; callback < CALLBACK_COUNT; callback++)
+            {
+                if (overrides(extensionClass, callback))
+                {
+                    mask |= 1 << callback;
+                }
+            }
+
+            masksByClass.put(extensionClass, mask);
+            return mask;
+        }
+    }
+
+    private static boolean overrides(Class<?> extensionClass, int callback)
+    {
+        try
+        {
+            Method method = extensionClass.getMethod(CALLBACK_NAMES[callback], CALLBACK_PARAMETERS[callback]);
+            return method.getDeclaringClass() != Extension.class;
+        }
+        catch (Exception e)
+        {
+            /// when in doubt, always dispatch
+            return true;
+        }
+    }
+}
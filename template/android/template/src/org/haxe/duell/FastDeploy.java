@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2003-2016, GameDuell GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.haxe.duell;
+
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Debug builds load the native libraries that the build plugin pushed with -fastdeploy, instead of the ones in the
+ * installed apk.
+ * <p/>
+ * The plugin copies changed libraries into files/duell_fastdeploy/lib in the data folder of the app and reinstalls
+ * the apk when anything else changed, assets included. {@link #install} puts the lib folder in front of the native
+ * library path of the class loader, so System.loadLibrary picks the pushed libraries up. Release builds never do
+ * any of this.
+ */
+public final class FastDeploy
+{
+    private static final String TAG = "DuellFastDeploy";
+
+    public static final boolean ENABLED = ::if PLATFORM.DEBUG::true::else::false::end::;
+
+    private static final String DIRECTORY = "duell_fastdeploy";
+
+    private FastDeploy()
+    {
+    }
+
+    public static File getLibraryDirectory(Context context)
+    {
+        return new File(new File(context.getFilesDir(), DIRECTORY), "lib");
+    }
+
+    /**
+     * Has to run before the first native library is loaded.
+     */
+    public static void install(Context context)
+    {
+        if (!ENABLED)
+        {
+            return;
+        }
+
+        File libraries = getLibraryDirectory(context);
+        String[] pushed = libraries.list();
+
+        if (pushed == null || pushed.length == 0)
+        {
+            return;
+        }
+
+        try
+        {
+            prependNativeLibraryDirectory(context.getClassLoader(), libraries);
+            Log.i(TAG, "Loading " + pushed.length + " pushed native libraries from " + libraries.getAbsolutePath());
+        }
+        catch (Exception e)
+        {
+            Log.w(TAG, "Could not use the pushed native libraries, build without -fastdeploy to reinstall the apk", e);
+        }
+    }
+
+    /// the class loader keeps its native library folders in BaseDexClassLoader.pathList, the same way instant run did it
+    @SuppressWarnings("unchecked")
+    private static void prependNativeLibraryDirectory(ClassLoader loader, File directory) throws Exception
+    {
+        Object pathList = findField(loader.getClass(), "pathList").get(loader);
+        Field directoriesField = findField(pathList.getClass(), "nativeLibraryDirectories");
+        Object directories = directoriesField.get(pathList);
+
+        if (directories instanceof List)
+        {
+            List<File> list = (List<File>) directories;
+            list.remove(directory);
+            list.add(0, directory);
+        }
+        else
+        {
+            File[] array = (File[]) directories;
+            List<File> list = new ArrayList<File>();
+            list.add(directory);
+            for (File file : array)
+            {
+                if (!file.equals(directory))
+                {
+                    list.add(file);
+                }
+            }
+            directoriesField.set(pathList, list.toArray(new File[list.size()]));
+        }
+
+        /// since android 6.0 the lookup goes through the path elements, which are built from all the folders
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M)
+        {
+            List<File> all = new ArrayList<File>((List<File>) directoriesField.get(pathList));
+            all.addAll((List<File>) findField(pathList.getClass(), "systemNativeLibraryDirectories").get(pathList));
+
+            Object elements;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+            {
+                Method makePathElements = findMethod(pathList.getClass(), "makePathElements", List.class);
+                elements = makePathElements.invoke(pathList, all);
+            }
+            else
+            {
+                Method makePathElements = findMethod(pathList.getClass(), "makePathElements", List.class, File.class, List.class);
+                elements = makePathElements.invoke(pathList, all, null, new ArrayList<IOException>());
+            }
+
+            findField(pathList.getClass(), "nativeLibraryPathElements").set(pathList, elements);
+        }
+    }
+
+    private static Field findField(Class<?> type, String name) throws NoSuchFieldException
+    {
+        for (Class<?> current = type; current != null; current = current.getSuperclass())
+        {
+            try
+            {
+                Field field = current.getDeclaredField(name);
+                field.setAccessible(true);
+                return field;
+            }
+            catch (NoSuchFieldException e)
+            {
+                /// declared further up
+            }
+        }
+
+        throw new NoSuchFieldException(name + " in " + type.getName());
+    }
+
+    private static Method findMethod(Class<?> type, String name, Class<?>... parameters) throws NoSuchMethodException
+    {
+        for (Class<?> current = type; current != null; current = current.getSuperclass())
+        {
+            try
+            {
+                Method method = current.getDeclaredMethod(name, parameters);
+                method.setAccessible(true);
+                return method;
+            }
+            catch (NoSuchMethodException e)
+            {
+                /// declared further up
+            }
+        }
+
+        throw new NoSuchMethodException(name + " in " + type.getName());
+    }
+}
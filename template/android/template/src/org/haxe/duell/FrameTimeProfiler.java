@@ -0,0 +1,417 @@
+/*
+ * Copyright (c) 2003-2016, GameDuell GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.haxe.duell;
+
+import android.content.Intent;
+import android.os.Build;
+import android.os.Bundle;
+import android.util.Log;
+import android.view.Choreographer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Samples the interval between frames from the display vsync callback of Choreographer (Android 4.1 and later) and
+ * writes a compact binary summary of every session to duell_frame_times.bin in the files folder of the app.
+ * <p/>
+ * A session runs from onResume to onPause. A frame is janky when it took more than one and a half refresh periods.
+ * For janky frames the profiler keeps the number of messages that were waiting in the haxe message queue, and the
+ * lifecycle event that happened last, so that jank can be told apart from e.g. a burst of queueOnHaxeThread work or
+ * resuming the app. Everything is recorded into preallocated arrays and a LatencyHistogram, so sampling does not
+ * allocate. Enable it with &lt;frame-time-profiler value="true"/&gt; in the android section of the project.
+ */
+public final class FrameTimeProfiler extends Extension
+{
+    private static final String TAG = "DuellFrameTimes";
+
+    private static final String FILE_NAME = "duell_frame_times.bin";
+    /// the file starts over once it is larger than this
+    private static final long MAX_FILE_SIZE = 1024 * 1024;
+
+    private static final int BINARY_MAGIC = 0x4446524D; /// "DFRM"
+    private static final int BINARY_VERSION = 1;
+
+    public static final int EVENT_NONE = 0;
+    public static final int EVENT_CREATE = 1;
+    public static final int EVENT_START = 2;
+    public static final int EVENT_RESTART = 3;
+    public static final int EVENT_RESUME = 4;
+    public static final int EVENT_PAUSE = 5;
+    public static final int EVENT_STOP = 6;
+    public static final int EVENT_NEW_INTENT = 7;
+    public static final int EVENT_TRIM_MEMORY = 8;
+    public static final int EVENT_LOW_MEMORY = 9;
+    private static final int EVENT_COUNT = 10;
+
+    /// jank within this time after a lifecycle event is attributed to that event
+    private static final long EVENT_WINDOW_NANOS = 1000000000L;
+
+    private static final int JANK_CAPACITY = 64;
+    private static final int JANK_MASK = JANK_CAPACITY - 1;
+
+    private final LatencyHistogram intervals = new LatencyHistogram();
+
+    private long frameCount;
+    private long jankCount;
+    private long droppedFrames;
+
+    /// sums of the haxe queue sizes, to compare the janky with the smooth frames
+    private long queueSizeSum;
+    private long jankQueueSizeSum;
+    private int jankQueueSizeMax;
+
+    private final int[] jankAfterEvent = new int[EVENT_COUNT];
+
+    /// the last JANK_CAPACITY janky frames
+    private int jankNext;
+    private final long[] jankTimes = new long[JANK_CAPACITY];
+    private final long[] jankIntervals = new long[JANK_CAPACITY];
+    private final int[] jankQueueSizes = new int[JANK_CAPACITY];
+    private final int[] jankEvents = new int[JANK_CAPACITY];
+    private final long[] jankEventAges = new long[JANK_CAPACITY];
+
+    private int lastEvent = EVENT_NONE;
+    private long lastEventTime;
+
+    private long sessionStart;
+    private long sessionStartMillis;
+    private long refreshPeriod = 1000000000L / 60;
+    private long lastFrameTime;
+
+    private BatchingMainHaxeThreadHandler haxeMessageQueue;
+    private File directory;
+
+    /// Choreographer.FrameCallback doesn't exist before Android 4.1, so the profiler can't implement it itself
+    private Object frameCallback;
+
+    private static final class FrameCallback implements Choreographer.FrameCallback
+    {
+        private final FrameTimeProfiler profiler;
+
+        FrameCallback(FrameTimeProfiler profiler)
+        {
+            this.profiler = profiler;
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos)
+        {
+            profiler.onFrame(frameTimeNanos);
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void onCreate(Bundle savedInstanceState)
+    {
+        DuellActivity activity = DuellActivity.getInstance();
+
+        haxeMessageQueue = activity.getHaxeMessageQueue();
+        directory = activity.getFilesDir();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+        {
+            frameCallback = new FrameCallback(this);
+        }
+
+        onEvent(EVENT_CREATE);
+    }
+
+    @Override
+    public void onStart()
+    {
+        onEvent(EVENT_START);
+    }
+
+    @Override
+    public void onRestart()
+    {
+        onEvent(EVENT_RESTART);
+    }
+
+    @Override
+    public void onResume()
+    {
+        onEvent(EVENT_RESUME);
+
+        float refreshRate = DuellActivity.getInstance().getWindowManager().getDefaultDisplay().getRefreshRate();
+        if (refreshRate >= 1)
+        {
+            refreshPeriod = (long) (1000000000L / refreshRate);
+        }
+
+        sessionStart = System.nanoTime();
+        sessionStartMillis = System.currentTimeMillis();
+        lastFrameTime = 0;
+
+        if (frameCallback != null)
+        {
+            Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback) frameCallback);
+        }
+    }
+
+    @Override
+    public void onPause()
+    {
+        if (frameCallback != null)
+        {
+            Choreographer.getInstance().removeFrameCallback((Choreographer.FrameCallback) frameCallback);
+        }
+
+        onEvent(EVENT_PAUSE);
+        flush();
+    }
+
+    @Override
+    public void onStop()
+    {
+        onEvent(EVENT_STOP);
+        flush();
+    }
+
+    @Override
+    public void onNewIntent(Intent intent)
+    {
+        onEvent(EVENT_NEW_INTENT);
+    }
+
+    @Override
+    public void onTrimMemory(int level)
+    {
+        onEvent(EVENT_TRIM_MEMORY);
+    }
+
+    @Override
+    public void onLowMemory()
+    {
+        onEvent(EVENT_LOW_MEMORY);
+    }
+
+    private void onEvent(int event)
+    {
+        lastEvent = event;
+        lastEventTime = System.nanoTime();
+    }
+
+    /// runs on the UI thread for every frame, must not allocate
+    private void onFrame(long frameTimeNanos)
+    {
+        long previous = lastFrameTime;
+        lastFrameTime = frameTimeNanos;
+
+        if (previous == 0)
+        {
+            return;
+        }
+
+        long interval = frameTimeNanos - previous;
+        int queueSize = haxeMessageQueue.size();
+
+        intervals.record(interval);
+        frameCount++;
+        queueSizeSum += queueSize;
+
+        if (interval * 2 <= refreshPeriod * 3)
+        {
+            return;
+        }
+
+        jankCount++;
+        droppedFrames += (interval + refreshPeriod / 2) / refreshPeriod - 1;
+        jankQueueSizeSum += queueSize;
+        jankQueueSizeMax = Math.max(jankQueueSizeMax, queueSize);
+
+        long eventAge = frameTimeNanos - lastEventTime;
+        if (eventAge < EVENT_WINDOW_NANOS)
+        {
+            jankAfterEvent[lastEvent]++;
+        }
+
+        int index = jankNext++ & JANK_MASK;
+        jankTimes[index] = frameTimeNanos - sessionStart;
+        jankIntervals[index] = interval;
+        jankQueueSizes[index] = queueSize;
+        jankEvents[index] = lastEvent;
+        jankEventAges[index] = eventAge;
+    }
+
+    /**
+     * Writes the session summary, when there were frames since the last one, and starts a new session. The file is
+     * appended to on the startup pool.
+     */
+    private void flush()
+    {
+        if (frameCount == 0 || directory == null)
+        {
+            return;
+        }
+
+        final byte[] summary;
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            writeSummary(new DataOutputStream(bytes));
+            summary = bytes.toByteArray();
+        }
+        catch (IOException e)
+        {
+            Log.e(TAG, "Could not write the frame time summary", e);
+            return;
+        }
+
+        Log.d(TAG, "Frame intervals: " + intervals.summary() + " janky " + jankCount + " dropped " + droppedFrames);
+
+        reset();
+
+        StartupPipeline.getExecutor().execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                File file = new File(directory, FILE_NAME);
+
+                try
+                {
+                    FileOutputStream output = new FileOutputStream(file, file.length() < MAX_FILE_SIZE);
+                    try
+                    {
+                        output.write(summary);
+                    }
+                    finally
+                    {
+                        output.close();
+                    }
+                }
+                catch (IOException e)
+                {
+                    Log.e(TAG, "Could not write " + file.getAbsolutePath(), e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Binary layout, all big endian: magic, version as ints; session start in milliseconds since the epoch, session
+     * duration and refresh period in nanoseconds, frame, janky frame and dropped frame counts as longs; the 50th, 90th
+     * and 99th percentile and the maximum interval in nanoseconds as longs; the number of non empty histogram buckets
+     * as int followed by the bucket index as int and its count as long each (see LatencyHistogram for the buckets); the
+     * sum of the haxe queue sizes over all frames and over the janky frames as longs and the largest one of a janky
+     * frame as int; the event count as int followed by the janky frame count per lifecycle event as int; the number of
+     * janky frame records as int followed, oldest first, by time since the session start and interval in nanoseconds
+     * as longs, haxe queue size as int, last lifecycle event as byte and nanoseconds since it as long.
+     */
+    private void writeSummary(DataOutputStream data) throws IOException
+    {
+        data.writeInt(BINARY_MAGIC);
+        data.writeInt(BINARY_VERSION);
+
+        data.writeLong(sessionStartMillis);
+        data.writeLong(System.nanoTime() - sessionStart);
+        data.writeLong(refreshPeriod);
+        data.writeLong(frameCount);
+        data.writeLong(jankCount);
+        data.writeLong(droppedFrames);
+
+        data.writeLong(intervals.getPercentile(50));
+        data.writeLong(intervals.getPercentile(90));
+        data.writeLong(intervals.getPercentile(99));
+        data.writeLong(intervals.getMax());
+
+        long[] counts = new long[LatencyHistogram.getBucketCount()];
+        intervals.getCounts(counts);
+
+        int buckets = 0;
+        for (long count : counts)
+        {
+            if (count != 0)
+            {
+                buckets++;
+            }
+        }
+
+        data.writeInt(buckets);
+        for (int bucket = 0; bucket < counts.length; bucket++)
+        {
+            if (counts[bucket] != 0)
+            {
+                data.writeInt(bucket);
+                data.writeLong(counts[bucket]);
+            }
+        }
+
+        data.writeLong(queueSizeSum);
+        data.writeLong(jankQueueSizeSum);
+        data.writeInt(jankQueueSizeMax);
+
+        data.writeInt(EVENT_COUNT);
+        for (int event = 0; event < EVENT_COUNT; event++)
+        {
+            data.writeInt(jankAfterEvent[event]);
+        }
+
+        int records = Math.min(jankNext, JANK_CAPACITY);
+        data.writeInt(records);
+        for (int i = jankNext - records; i < jankNext; i++)
+        {
+            int index = i & JANK_MASK;
+
+            data.writeLong(jankTimes[index]);
+            data.writeLong(jankIntervals[index]);
+            data.writeInt(jankQueueSizes[index]);
+            data.writeByte(jankEvents[index]);
+            data.writeLong(jankEventAges[index]);
+        }
+
+        data.flush();
+    }
+
+    private void reset()
+    {
+        intervals.reset();
+
+        frameCount = 0;
+        jankCount = 0;
+        droppedFrames = 0;
+        queueSizeSum = 0;
+        jankQueueSizeSum = 0;
+        jankQueueSizeMax = 0;
+        jankNext = 0;
+
+        for (int event = 0; event < EVENT_COUNT; event++)
+        {
+            jankAfterEvent[event] = 0;
+        }
+
+        sessionStart = System.nanoTime();
+        sessionStartMillis = System.currentTimeMillis();
+    }
+}
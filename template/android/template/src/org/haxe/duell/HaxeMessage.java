@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2003-2016, GameDuell GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.haxe.duell;
+
+/**
+ * Reusable message slot of the {@link BatchingMainHaxeThreadHandler} ring buffer.
+ * <p/>
+ * Instances are owned by the ring and handed out by {@link BatchingMainHaxeThreadHandler#obtain(int)}. Producers fill
+ * in the opcode payload and publish the slot, the haxe thread reads it in its receiver. Never keep a reference to a
+ * message after publishing it or after the receiver returns, the slot is recycled for the next message.
+ */
+public final class HaxeMessage
+{
+    /// position of this slot in the ring, managed by HaxeMessageRing
+    long sequence;
+
+    /// lane of the ring this slot belongs to, managed by BatchingMainHaxeThreadHandler
+    int lane;
+
+    public int opcode;
+
+    public int i0;
+    public int i1;
+    public int i2;
+    public int i3;
+
+    public long l0;
+
+    public float f0;
+    public float f1;
+    public float f2;
+    public float f3;
+
+    public double d0;
+
+    /// only meant for the Runnable compatibility path and rare non primitive payloads
+    public Object ref;
+
+    void clear()
+    {
+        opcode = 0;
+        i0 = i1 = i2 = i3 = 0;
+        l0 = 0;
+        f0 = f1 = f2 = f3 = 0.0f;
+        d0 = 0.0;
+        ref = null;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2003-2016, GameDuell GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.haxe.duell;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free multi producer / single consumer ring of preallocated {@link HaxeMessage} slots.
+ * <p/>
+ * Every slot carries a sequence number. A slot at ring position p is free for the producer claiming position p when its
+ * sequence is p, and readable by the consumer when its sequence is p + 1. Releasing a slot moves its sequence one lap
+ * ahead, to p + capacity. Nothing is allocated after construction.
+ */
+final class HaxeMessageRing
+{
+    private final HaxeMessage[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+
+    private final AtomicLong tail = new AtomicLong(0);
+
+    /// only written by the consumer, volatile so that size() can be read from any thread
+    private volatile long head = 0;
+
+    HaxeMessageRing(int capacity)
+    {
+        if (capacity < 2 || (capacity & (capacity - 1)) != 0)
+        {
+            throw new IllegalArgumentException("Ring capacity has to be a power of two, got " + capacity);
+        }
+
+        slots = new HaxeMessage[capacity];
+        sequences = new AtomicLongArray(capacity);
+        mask = capacity - 1;
+
+        for (int i = 0; i < capacity; i++)
+        {
+            slots[i] = new HaxeMessage();
+            sequences.set(i, i);
+        }
+    }
+
+    int capacity()
+    {
+        return slots.length;
+    }
+
+    /// approximate amount of claimed but not yet released slots
+    int size()
+    {
+        long size = tail.get() - head;
+        return size < 0 ? 0 : (int) size;
+    }
+
+    /// returns null when the ring is full. May be called from any thread.
+    HaxeMessage claim()
+    {
+        long position = tail.get();
+
+        while (true)
+        {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+
+            if (difference == 0)
+            {
+                if (tail.compareAndSet(position, position + 1))
+                {
+                    HaxeMessage message = slots[index];
+                    message.sequence = position;
+                    return message;
+                }
+
+                position = tail.get();
+            }
+            else if (difference < 0)
+            {
+                /// the consumer has not released this slot from the previous lap yet
+                return null;
+            }
+            else
+            {
+                /// another producer claimed this position in the meantime
+                position = tail.get();
+            }
+        }
+    }
+
+    /// makes a claimed slot visible to the consumer
+    void publish(HaxeMessage message)
+    {
+        sequences.lazySet((int) (message.sequence & mask), message.sequence + 1);
+    }
+
+    /// consumer only. Returns the next published message in claim order, or null if there is none yet.
+    HaxeMessage peek()
+    {
+        long position = head;
+        int index = (int) (position & mask);
+
+        if (sequences.get(index) != position + 1)
+        {
+            return null;
+        }
+
+        return slots[index];
+    }
+
+    /// consumer only. Recycles the message returned by the last peek().
+    void release(HaxeMessage message)
+    {
+        long position = message.sequence;
+        message.clear();
+        sequences.lazySet((int) (position & mask), position + slots.length);
+        head = position + 1;
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2003-2016, GameDuell GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.haxe.duell;
+
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decorates a MainHaxeThreadHandler with event loop metrics: the latency from enqueueing a runnable until it starts
+ * running, the time each runnable takes, the current and maximum queue depth and the slowest runnables by class.
+ * <p/>
+ * Runnables are wrapped into pooled timing wrappers and the histograms have a fixed size, so the steady state does
+ * not allocate. Enable it with &lt;haxe-thread-metrics value="true"/&gt; in the android section of the project, the
+ * metrics of the haxe and the main thread queue are then available through DuellActivity.
+ */
+public final class InstrumentedMainHaxeThreadHandler implements MainHaxeThreadHandler
+{
+    private static final String TAG = "DuellMetrics";
+
+    private static final int POOL_SIZE = 256;
+    private static final int SLOWEST_CALLERS = 8;
+
+    private final String name;
+    private final MainHaxeThreadHandler delegate;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram runTime = new LatencyHistogram();
+
+    private final AtomicInteger depth = new AtomicInteger(0);
+    private final AtomicInteger maxDepth = new AtomicInteger(0);
+
+    private final TimedRunnable[] pool = new TimedRunnable[POOL_SIZE];
+    private int pooled = 0;
+
+    /// ordered from slowest to fastest, slowestTimes[SLOWEST_CALLERS - 1] is the bar to get into the table
+    private final Class<?>[] slowestClasses = new Class<?>[SLOWEST_CALLERS];
+    private final long[] slowestTimes = new long[SLOWEST_CALLERS];
+    private volatile long slowestThreshold = 0;
+
+    private final class TimedRunnable implements Runnable
+    {
+        Runnable runnable;
+        long enqueuedAt;
+
+        @Override
+        public void run()
+        {
+            Runnable target = runnable;
+            long start = System.nanoTime();
+
+            latency.record(start - enqueuedAt);
+            depth.decrementAndGet();
+
+            /// recycled before running, the target may queue further runnables
+            recycle(this);
+
+            try
+            {
+                target.run();
+            }
+            finally
+            {
+                long duration = System.nanoTime() - start;
+
+                runTime.record(duration);
+
+                if (duration > slowestThreshold)
+                {
+                    recordSlowCaller(target.getClass(), duration);
+                }
+            }
+        }
+    }
+
+    public InstrumentedMainHaxeThreadHandler(String name, MainHaxeThreadHandler delegate)
+    {
+        this.name = name;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void queueRunnableOnMainHaxeThread(Runnable runnable)
+    {
+        delegate.queueRunnableOnMainHaxeThread(wrap(runnable));
+    }
+
+    /**
+     * Wraps the runnable so that it is measured when it runs, for queues that are not reached through
+     * queueRunnableOnMainHaxeThread, like the lanes of BatchingMainHaxeThreadHandler. The returned runnable has to be
+     * run exactly once.
+     */
+    public Runnable wrap(Runnable runnable)
+    {
+        TimedRunnable timed = obtain();
+        timed.runnable = runnable;
+        timed.enqueuedAt = System.nanoTime();
+
+        int current = depth.incrementAndGet();
+        int max = maxDepth.get();
+        while (current > max && !maxDepth.compareAndSet(max, current))
+        {
+            max = maxDepth.get();
+        }
+
+        return timed;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /// time between enqueueing a runnable and the start of its execution
+    public LatencyHistogram getLatency()
+    {
+        return latency;
+    }
+
+    /// execution time of the runnables
+    public LatencyHistogram getRunTime()
+    {
+        return runTime;
+    }
+
+    /// runnables that are queued but did not start yet
+    public int getQueueDepth()
+    {
+        return depth.get();
+    }
+
+    public int getMaxQueueDepth()
+    {
+        return maxDepth.get();
+    }
+
+    /**
+     * Returns the classes of the slowest runnables seen so far, slowest first, with their run times in nanoseconds in
+     * the matching entries of {@code times}, which needs room for at least 8 entries. Returns the number of entries.
+     */
+    public synchronized int getSlowestCallers(Class<?>[] classes, long[] times)
+    {
+        int count = 0;
+
+        for (int i = 0; i < SLOWEST_CALLERS && slowestClasses[i] != null; i++)
+        {
+            classes[i] = slowestClasses[i];
+            times[i] = slowestTimes[i];
+            count++;
+        }
+
+        return count;
+    }
+
+    public synchronized void reset()
+    {
+        latency.reset();
+        runTime.reset();
+        maxDepth.set(depth.get());
+
+        for (int i = 0; i < SLOWEST_CALLERS; i++)
+        {
+            slowestClasses[i] = null;
+            slowestTimes[i] = 0;
+        }
+        slowestThreshold = 0;
+    }
+
+    /**
+     * Writes the metrics to logcat.
+     */
+    public synchronized void dump()
+    {
+        Log.i(TAG, name + " queue latency: " + latency.summary());
+        Log.i(TAG, name + " run time: " + runTime.summary());
+        Log.i(TAG, name + " queue depth: " + depth.get() + " max " + maxDepth.get());
+
+        for (int i = 0; i < SLOWEST_CALLERS && slowestClasses[i] != null; i++)
+        {
+            Log.i(TAG, name + " slow: " + slowestClasses[i].getName() + " " + LatencyHistogram.format(slowestTimes[i]));
+        }
+    }
+
+    private synchronized TimedRunnable obtain()
+    {
+        if (pooled == 0)
+        {
+            /// only when more than POOL_SIZE runnables are in flight
+            return new TimedRunnable();
+        }
+
+        TimedRunnable timed = pool[--pooled];
+        pool[pooled] = null;
+        return timed;
+    }
+
+    private synchronized void recycle(TimedRunnable timed)
+    {
+        timed.runnable = null;
+
+        if (pooled < POOL_SIZE)
+        {
+            pool[pooled++] = timed;
+        }
+    }
+
+    private synchronized void recordSlowCaller(Class<?> runnableClass, long duration)
+    {
+        /// a class appears only once, with its slowest run
+        int position = SLOWEST_CALLERS - 1;
+        for (int i = 0; i < SLOWEST_CALLERS; i++)
+        {
+            if (slowestClasses[i] == runnableClass)
+            {
+                if (slowestTimes[i] >= duration)
+                {
+                    return;
+                }
+
+                position = i;
+                break;
+            }
+        }
+
+        if (slowestTimes[position] >= duration && slowestClasses[position] != null)
+        {
+            return;
+        }
+
+        while (position > 0 && slowestTimes[position - 1] < duration)
+        {
+            slowestClasses[position] = slowestClasses[position - 1];
+            slowestTimes[position] = slowestTimes[position - 1];
+            position--;
+        }
+
+        slowestClasses[position] = runnableClass;
+        slowestTimes[position] = duration;
+
+        if (slowestClasses[SLOWEST_CALLERS - 1] != null)
+        {
+            slowestThreshold = slowestTimes[SLOWEST_CALLERS - 1];
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2003-2016, GameDuell GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.haxe.duell;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed memory log-linear histogram of nanosecond durations, in the spirit of HdrHistogram.
+ * <p/>
+ * Every power of two range is split into 16 linear buckets, which keeps the relative error below 1/16 between
+ * 16ns and about 18 minutes. Larger values are counted in the last bucket. Recording is lock-free and never allocates.
+ */
+public final class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKET_COUNT = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    public void record(long nanos)
+    {
+        counts.getAndIncrement(bucketOf(nanos));
+    }
+
+    public long getCount()
+    {
+        long count = 0;
+
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++)
+        {
+            count += counts.get(bucket);
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the lower bound of the bucket that holds the given percentile (0 to 100), or 0 when nothing has been
+     * recorded.
+     */
+    public long getPercentile(double percentile)
+    {
+        long count = getCount();
+
+        if (count == 0)
+        {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++)
+        {
+            seen += counts.get(bucket);
+
+            if (seen >= rank)
+            {
+                return lowerBoundOf(bucket);
+            }
+        }
+
+        return lowerBoundOf(BUCKET_COUNT - 1);
+    }
+
+    public long getMax()
+    {
+        for (int bucket = BUCKET_COUNT - 1; bucket >= 0; bucket--)
+        {
+            if (counts.get(bucket) != 0)
+            {
+                return lowerBoundOf(bucket);
+            }
+        }
+
+        return 0;
+    }
+
+    /// copies the bucket counts into the given array, which needs at least getBucketCount() entries
+    public void getCounts(long[] into)
+    {
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++)
+        {
+            into[bucket] = counts.get(bucket);
+        }
+    }
+
+    public static int getBucketCount()
+    {
+        return BUCKET_COUNT;
+    }
+
+    public void reset()
+    {
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++)
+        {
+            counts.set(bucket, 0);
+        }
+    }
+
+    /// "p50=1.2ms p90=... p99=... max=... n=..."
+    public String summary()
+    {
+        return "p50=" + format(getPercentile(50)) + " p90=" + format(getPercentile(90)) + " p99=" +
+                format(getPercentile(99)) + " max=" + format(getMax()) + " n=" + getCount();
+    }
+
+    static int bucketOf(long nanos)
+    {
+        if (nanos < SUB_BUCKETS)
+        {
+            return nanos < 0 ? 0 : (int) nanos;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+
+        if (exponent > MAX_EXPONENT)
+        {
+            return BUCKET_COUNT - 1;
+        }
+
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    static long lowerBoundOf(int bucket)
+    {
+        if (bucket < SUB_BUCKETS)
+        {
+            return bucket;
+        }
+
+        int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+        int subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket)) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    static String format(long nanos)
+    {
+        if (nanos >= 1000000)
+        {
+            return (nanos / 100000) / 10.0 + "ms";
+        }
+
+        return (nanos / 100) / 10.0 + "us";
+    }
+}
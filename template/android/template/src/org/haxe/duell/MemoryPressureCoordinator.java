@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2003-2016, GameDuell GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.haxe.duell;
+
+import android.content.ComponentCallbacks2;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Central place to react to onTrimMemory and onLowMemory.
+ * <p/>
+ * Caches, pools and extensions register as {@link ReclaimableResource}. Each trim level maps to a share of the
+ * registered memory that should be freed, the coordinator then asks the resources for memory in priority order until
+ * that target is met, and logs how much was actually freed. Extensions that implement ReclaimableResource are
+ * registered automatically.
+ */
+public final class MemoryPressureCoordinator
+{
+    private static final String TAG = "DuellMemory";
+
+    /// recomputable data, e.g. decoded images or parsed files
+    public static final int PRIORITY_CACHE = 100;
+    /// preallocated memory that is only there to avoid allocations, e.g. buffer pools
+    public static final int PRIORITY_POOL = 200;
+    /// state that is expensive to recreate, only released on the highest levels
+    public static final int PRIORITY_STATE = 300;
+
+    /// used for onLowMemory, which is the equivalent of the highest trim level
+    public static final int LEVEL_LOW_MEMORY = ComponentCallbacks2.TRIM_MEMORY_COMPLETE;
+
+    private static MemoryPressureCoordinator instance;
+
+    private final List<ReclaimableResource> resources = new ArrayList<ReclaimableResource>();
+
+    private long lastFreed = 0;
+    private long totalFreed = 0;
+
+    private MemoryPressureCoordinator()
+    {
+    }
+
+    public static synchronized MemoryPressureCoordinator getInstance()
+    {
+        if (instance == null)
+        {
+            instance = new MemoryPressureCoordinator();
+        }
+
+        return instance;
+    }
+
+    public synchronized void register(ReclaimableResource resource)
+    {
+        if (!resources.contains(resource))
+        {
+            resources.add(resource);
+        }
+    }
+
+    public synchronized void unregister(ReclaimableResource resource)
+    {
+        resources.remove(resource);
+    }
+
+    /// sum of the estimated sizes of all registered resources
+    public synchronized long getRegisteredSize()
+    {
+        long size = 0;
+
+        for (ReclaimableResource resource : resources)
+        {
+            size += resource.getEstimatedSize();
+        }
+
+        return size;
+    }
+
+    /// bytes freed by the last trim
+    public synchronized long getLastFreedBytes()
+    {
+        return lastFreed;
+    }
+
+    /// bytes freed since the start of the process
+    public synchronized long getTotalFreedBytes()
+    {
+        return totalFreed;
+    }
+
+    /**
+     * Reclaims memory for the given ComponentCallbacks2.TRIM_MEMORY_* level and returns the number of bytes freed.
+     */
+    public long trim(int level)
+    {
+        ReclaimableResource[] ordered;
+
+        synchronized (this)
+        {
+            ordered = resources.toArray(new ReclaimableResource[resources.size()]);
+        }
+
+        /// insertion sort keeps registration order within a priority
+        for (int i = 1; i < ordered.length; i++)
+        {
+            ReclaimableResource resource = ordered[i];
+            int j = i - 1;
+
+            while (j >= 0 && ordered[j].getPriority() > resource.getPriority())
+            {
+                ordered[j + 1] = ordered[j];
+                j--;
+            }
+
+            ordered[j + 1] = resource;
+        }
+
+        long registered = 0;
+        for (ReclaimableResource resource : ordered)
+        {
+            registered += resource.getEstimatedSize();
+        }
+
+        long target = (long) (registered * getTargetShare(level));
+        long freed = 0;
+        int asked = 0;
+
+        for (ReclaimableResource resource : ordered)
+        {
+            if (freed >= target)
+            {
+                break;
+            }
+
+            if (resource.getEstimatedSize() == 0)
+            {
+                continue;
+            }
+
+            freed += resource.reclaim(target - freed, level);
+            asked++;
+        }
+
+        synchronized (this)
+        {
+            lastFreed = freed;
+            totalFreed += freed;
+        }
+
+        Log.i(TAG, "Trim level " + level + ": freed " + freed + " of " + target + " bytes targeted from " + asked +
+                " of " + ordered.length + " resources holding " + registered + " bytes");
+
+        return freed;
+    }
+
+    /// share of the registered memory to free per level. The running levels come while the app is in the foreground
+    /// and only ask for a part, the background levels grow with the chance of the process being killed.
+    static double getTargetShare(int level)
+    {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE)
+        {
+            return 1.0;
+        }
+        else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE)
+        {
+            return 0.75;
+        }
+        else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND)
+        {
+            return 0.5;
+        }
+        else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN)
+        {
+            return 0.25;
+        }
+        else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL)
+        {
+            return 0.5;
+        }
+        else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+        {
+            return 0.25;
+        }
+        else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE)
+        {
+            return 0.1;
+        }
+
+        return 0.0;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2003-2016, GameDuell GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.haxe.duell;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Loads native libraries one after the other on a background thread, so the UI thread carries on with onCreate.
+ * <p/>
+ * The build plugin generates the libraries in dependency order from their DT_NEEDED entries and they load in that
+ * order. Loading them on more threads would not overlap anything: Runtime.loadLibrary is synchronized and the dynamic
+ * linker holds a global lock during dlopen and the static initializers, and JNI_OnLoad runs inside that call.
+ * {@link #join()} blocks until the thread is done and rethrows the load failure, the libraries after a failed one are
+ * not loaded. The loads don't go through the startup pool, where background inits and trace or profiler writes could
+ * hold up the critical path.
+ */
+final class NativeLibraryLoader
+{
+    private final List<String> libraries = new ArrayList<String>();
+    private final Set<String> added = new HashSet<String>();
+
+    private Thread thread;
+    private volatile String failedLibrary;
+    private volatile Throwable failure;
+
+    /// dependencies have to be added before the libraries that depend on them
+    void add(String name, String... dependencies)
+    {
+        for (String dependency : dependencies)
+        {
+            if (!added.contains(dependency))
+            {
+                throw new IllegalArgumentException("Native library " + dependency + " has to be added before " + name);
+            }
+        }
+
+        libraries.add(name);
+        added.add(name);
+    }
+
+    void start()
+    {
+        thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                load();
+            }
+        }, "DuellLoadLibraries");
+
+        thread.start();
+    }
+
+    void join()
+    {
+        boolean interrupted = false;
+
+        while (true)
+        {
+            try
+            {
+                thread.join();
+                break;
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        if (failure instanceof Error)
+        {
+            throw (Error) failure;
+        }
+        else if (failure != null)
+        {
+            throw new RuntimeException("Failed to load native library " + failedLibrary, failure);
+        }
+    }
+
+    private void load()
+    {
+        for (String library : libraries)
+        {
+            try
+            {
+                int span = DuellTrace.begin("loadLibrary", library);
+                System.loadLibrary(library);
+                DuellTrace.end(span);
+            }
+            catch (Throwable e)
+            {
+                failedLibrary = library;
+                failure = e;
+                return;
+            }
+        }
+    }
+}
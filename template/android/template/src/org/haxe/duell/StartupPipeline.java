@@ -0,0 +1,316 @@
+/*
+ * Copyright (c) 2003-2016, GameDuell GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.haxe.duell;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Schedules the onCreate of activity and application extensions according to their declared init mode.
+ * <p/>
+ * Critical inits run on the calling (UI) thread during onCreate, background inits run in parallel on a small shared
+ * pool and deferred inits run on the UI thread once the first frame is out. An init only waits for the inits it
+ * declares as dependencies, everything else runs independently. Inits are started in dependency order, falling back
+ * to registration order, which is also the order of the PLATFORM.ACTIVITY_EXTENSIONS and
+ * PLATFORM.APPLICATION_EXTENSIONS lists.
+ */
+public final class StartupPipeline
+{
+    /// runs on the UI thread during onCreate, the default and the behaviour before init modes existed
+    public static final int INIT_CRITICAL = 0;
+    /// runs on a background thread, in parallel with the UI thread and other background inits
+    public static final int INIT_BACKGROUND = 1;
+    /// runs on the UI thread after the first frame
+    public static final int INIT_DEFERRED = 2;
+
+    private static ThreadPoolExecutor executor;
+
+    private final List<Task> tasks = new ArrayList<Task>();
+    private final List<Task> deferred = new ArrayList<Task>();
+    private boolean started = false;
+
+    private static final class Task
+    {
+        final Object owner;
+        final int mode;
+        final Class<?>[] dependencyClasses;
+        final Runnable init;
+        final List<Task> dependencies = new ArrayList<Task>();
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile Throwable failure;
+
+        Task(Object owner, int mode, Class<?>[] dependencyClasses, Runnable init)
+        {
+            this.owner = owner;
+            this.mode = mode;
+            this.dependencyClasses = dependencyClasses;
+            this.init = init;
+        }
+    }
+
+    /**
+     * Adds an init. Dependencies are matched against the classes of the other owners, dependencies that match no
+     * owner are ignored.
+     */
+    public void add(Object owner, int mode, Class<?>[] dependencies, Runnable init)
+    {
+        if (started)
+        {
+            throw new IllegalStateException("Inits have to be added before the pipeline is started");
+        }
+
+        tasks.add(new Task(owner, mode, dependencies, init));
+    }
+
+    /**
+     * Runs the critical inits on the calling thread and starts the background ones. Returns once all critical inits
+     * are done, background inits may still be running.
+     */
+    public void start()
+    {
+        started = true;
+
+        List<Task> ordered = resolveOrder();
+
+        for (Task task : ordered)
+        {
+            if (task.mode == INIT_BACKGROUND)
+            {
+                submit(task);
+            }
+        }
+
+        for (Task task : ordered)
+        {
+            if (task.mode == INIT_CRITICAL)
+            {
+                runTask(task);
+            }
+            else if (task.mode == INIT_DEFERRED)
+            {
+                deferred.add(task);
+            }
+        }
+    }
+
+    /**
+     * Runs the deferred inits on the calling thread. Has no effect when called more than once.
+     */
+    public void runDeferred()
+    {
+        for (Task task : deferred)
+        {
+            runTask(task);
+        }
+
+        deferred.clear();
+    }
+
+    /**
+     * Blocks until every background init is done.
+     */
+    public void awaitBackground()
+    {
+        for (Task task : tasks)
+        {
+            if (task.mode == INIT_BACKGROUND)
+            {
+                await(task);
+            }
+        }
+    }
+
+    private void submit(final Task task)
+    {
+        getExecutor().execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    runTask(task);
+                }
+                catch (final RuntimeException e)
+                {
+                    /// crash on the main thread, as if the init had run there
+                    new Handler(Looper.getMainLooper()).post(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            throw e;
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    private static void runTask(Task task)
+    {
+        try
+        {
+            for (Task dependency : task.dependencies)
+            {
+                await(dependency);
+            }
+
+            task.init.run();
+        }
+        catch (RuntimeException e)
+        {
+            task.failure = e;
+            throw e;
+        }
+        catch (Error e)
+        {
+            task.failure = e;
+            throw e;
+        }
+        finally
+        {
+            task.done.countDown();
+        }
+    }
+
+    private static void await(Task task)
+    {
+        boolean interrupted = false;
+
+        while (true)
+        {
+            try
+            {
+                task.done.await();
+                break;
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        if (task.failure != null)
+        {
+            throw new IllegalStateException("Init of " + task.owner.getClass().getName() + " failed", task.failure);
+        }
+    }
+
+    /// topological order of the tasks, stable with respect to registration order
+    private List<Task> resolveOrder()
+    {
+        for (Task task : tasks)
+        {
+            if (task.dependencyClasses == null)
+            {
+                continue;
+            }
+
+            for (Class<?> dependencyClass : task.dependencyClasses)
+            {
+                for (Task other : tasks)
+                {
+                    if (other != task && dependencyClass.isInstance(other.owner))
+                    {
+                        if (other.mode == INIT_DEFERRED && task.mode != INIT_DEFERRED)
+                        {
+                            throw new IllegalStateException(task.owner.getClass().getName() +
+                                    " cannot depend on the deferred init of " + other.owner.getClass().getName());
+                        }
+
+                        task.dependencies.add(other);
+                    }
+                }
+            }
+        }
+
+        List<Task> ordered = new ArrayList<Task>(tasks.size());
+
+        while (ordered.size() < tasks.size())
+        {
+            boolean progress = false;
+
+            for (Task task : tasks)
+            {
+                if (!ordered.contains(task) && ordered.containsAll(task.dependencies))
+                {
+                    ordered.add(task);
+                    progress = true;
+                }
+            }
+
+            if (!progress)
+            {
+                throw new IllegalStateException("Cyclic init dependencies between extensions");
+            }
+        }
+
+        return ordered;
+    }
+
+    /// small pool shared by everything that runs in parallel during startup
+    static synchronized ThreadPoolExecutor getExecutor()
+    {
+        if (executor == null)
+        {
+            int threads = Math.max(1, Math.min(3, Runtime.getRuntime().availableProcessors() - 1));
+
+            executor = new ThreadPoolExecutor(threads, threads, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory()
+                    {
+                        private final AtomicInteger count = new AtomicInteger(0);
+
+                        @Override
+                        public Thread newThread(Runnable runnable)
+                        {
+                            return new Thread(runnable, "DuellStartup-" + count.incrementAndGet());
+                        }
+                    });
+
+            /// the pool is only needed during startup
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        return executor;
+    }
+}
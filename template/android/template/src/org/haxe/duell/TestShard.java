@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2003-2016, GameDuell GmbH
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.haxe.duell;
+
+import android.content.Intent;
+
+/**
+ * The part of the test suite that this device runs, when the build plugin spreads a -test run over several devices
+ * with -testdevices.
+ * <p/>
+ * The plugin starts the activity with the duell.test.shard and duell.test.shardcount extras. A test runner on the haxe
+ * side runs the tests whose position modulo {@link #getCount} equals {@link #getIndex}. Without the extras the device
+ * runs every test. With several devices the test client has to connect to localhost on the test port, which adb reverse
+ * maps to the listener of this device; the emulator host alias 10.0.2.2 bypasses that mapping.
+ */
+public final class TestShard
+{
+    private static int index = 0;
+    private static int count = 1;
+
+    private TestShard()
+    {
+    }
+
+    static void init(Intent intent)
+    {
+        if (intent == null)
+        {
+            return;
+        }
+
+        count = Math.max(1, intent.getIntExtra("duell.test.shardcount", 1));
+        index = Math.min(count - 1, Math.max(0, intent.getIntExtra("duell.test.shard", 0)));
+    }
+
+    public static int getIndex()
+    {
+        return index;
+    }
+
+    public static int getCount()
+    {
+        return count;
+    }
+}
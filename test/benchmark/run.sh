@@ -0,0 +1,93 @@
+#!/bin/sh
+#
+# Benchmark of the build phases: builds a copy of the sample project three times against the stubbed toolchain in
+# test/benchmark/toolchain, so the numbers show the time of the plugin itself and do not depend on the real
+# compilers. The stand-ins sleep for a configurable time instead of compiling, see the scripts.
+#
+#   cold   after removing the export folder, without the build cache
+#   warm   after changing a haxe source
+#   no-op  without any change
+#
+# "record" keeps the build_timings.json of each build in the given folder as the baseline. "check" compares each
+# build with its baseline through -timingbaseline and fails if a phase became slower than the threshold in percent
+# allows, 20 by default.
+#
+# usage: test/benchmark/run.sh record <baseline folder> [extra duell arguments]
+#        test/benchmark/run.sh check <baseline folder> [threshold] [extra duell arguments]
+#
+# Needs duell with the android plugin set up, including hxcpp, and zip. Haxe, hxcpp and gradle are stubbed.
+
+BENCHMARK_DIR="$(cd "$(dirname "$0")" && pwd)"
+TOOLCHAIN="$BENCHMARK_DIR/toolchain"
+MODE="$1"
+BASELINE="$2"
+
+if [ "$MODE" != record ] && [ "$MODE" != check ] || [ -z "$BASELINE" ]; then
+    echo "usage: $0 record <baseline folder> [extra duell arguments]"
+    echo "       $0 check <baseline folder> [threshold] [extra duell arguments]"
+    exit 2
+fi
+
+shift 2
+
+THRESHOLD=20
+if [ "$MODE" = check ] && [ -n "$1" ] && [ "$1" -eq "$1" ] 2>/dev/null; then
+    THRESHOLD="$1"
+    shift
+fi
+
+mkdir -p "$BASELINE"
+BASELINE="$(cd "$BASELINE" && pwd)"
+
+WORK="$(mktemp -d)"
+cp -R "$BENCHMARK_DIR/sample/." "$WORK"
+
+export PATH="$TOOLCHAIN:$PATH"
+FAILED=""
+
+# build <kind> [extra duell arguments]
+build()
+{
+    kind="$1"
+    shift
+
+    if [ "$MODE" = check ]; then
+        if [ ! -f "$BASELINE/$kind.json" ]; then
+            echo "no baseline for the $kind build in $BASELINE, record one first"
+            exit 1
+        fi
+
+        set -- "$@" -timingbaseline "$BASELINE/$kind.json" -timingthreshold "$THRESHOLD"
+    fi
+
+    echo "$kind build"
+
+    if ! (cd "$WORK" && duell build android -norun -gradlepath "$TOOLCHAIN" "$@") > "$WORK/$kind.log" 2>&1; then
+        cat "$WORK/$kind.log"
+        FAILED="$FAILED $kind"
+    fi
+
+    if [ "$MODE" = record ]; then
+        cp "$WORK/Export/android/build_timings.json" "$BASELINE/$kind.json"
+    fi
+}
+
+build cold -nobuildcache "$@"
+
+echo "// warm build $(date +%s)" >> "$WORK/Source/Main.hx"
+build warm "$@"
+
+build no-op "$@"
+
+rm -rf "$WORK"
+
+if [ -n "$FAILED" ]; then
+    echo "FAILED:$FAILED"
+    exit 1
+fi
+
+if [ "$MODE" = record ]; then
+    echo "baseline recorded in $BASELINE"
+else
+    echo "no build phase regressed by more than $THRESHOLD%"
+fi
@@ -0,0 +1,8 @@
+/// the warm build of the benchmark changes the last line of this file
+class Main
+{
+	static function main()
+	{
+		trace("benchmark");
+	}
+}
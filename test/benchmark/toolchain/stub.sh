@@ -0,0 +1,32 @@
+#!/bin/sh
+#
+# Shared by the stand-ins of the benchmark toolchain: finds the real tool further down the PATH, for the calls that
+# are not part of the android build, like duell compiling its plugins.
+
+STUB_DIR="$(cd "$(dirname "$0")" && pwd)"
+
+# simulated work, so that the phases of the stubbed tools are long enough to be compared
+work()
+{
+    sleep "$1"
+}
+
+# runs the tool with the given name that comes after the stand-ins in the PATH
+exec_real_tool()
+{
+    name="$1"
+    shift
+
+    old_ifs="$IFS"
+    IFS=:
+    for dir in $PATH; do
+        if [ "$dir" != "$STUB_DIR" ] && [ -x "$dir/$name" ]; then
+            IFS="$old_ifs"
+            exec "$dir/$name" "$@"
+        fi
+    done
+    IFS="$old_ifs"
+
+    echo "$name not found in the PATH"
+    exit 127
+}
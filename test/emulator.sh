@@ -0,0 +1,130 @@
+#!/bin/sh
+#
+# Checks how the plugin waits for the emulator, against the stand-ins in test/adb and test/emulator, so neither an
+# emulator nor an adb server is needed. Builds the given duell project with -emulator once per scenario: a boot
+# without problems, failing watchers with the backoff and the restart of adb, a device that goes offline while
+# booting, the deadline, an emulator that exits while booting and the choice between cold and quick boot.
+#
+# usage: test/emulator.sh <duell project folder> [extra duell arguments]
+
+set -e
+
+TEST_DIR="$(cd "$(dirname "$0")" && pwd)"
+PROJECT="$1"
+shift || true
+
+if [ -z "$PROJECT" ]; then
+    echo "usage: $0 <duell project folder> [extra duell arguments]"
+    exit 2
+fi
+
+export DUELL_FAKE_ADB_DIR="$(mktemp -d)"
+LOG="$DUELL_FAKE_ADB_DIR/commands.log"
+OUTPUT="$DUELL_FAKE_ADB_DIR/build.log"
+FAILED=0
+
+# runs the build with the watcher outcomes given as arguments, e.g. boot "fail fail ok ok"
+boot()
+{
+    outcomes="$1"
+    shift
+
+    rm -f "$LOG" "$DUELL_FAKE_ADB_DIR/emulator.log"
+    : > "$DUELL_FAKE_ADB_DIR/scenario"
+    for outcome in $outcomes; do
+        echo "$outcome" >> "$DUELL_FAKE_ADB_DIR/scenario"
+    done
+
+    (cd "$PROJECT" && duell build android -emulator -adbpath "$TEST_DIR/adb" -emulatorpath "$TEST_DIR/emulator" \
+        "$@" $EXTRA_ARGS) > "$OUTPUT" 2>&1
+}
+
+expect_success()
+{
+    if ! boot "$@"; then
+        cat "$OUTPUT"
+        echo "FAILED: the build failed"
+        FAILED=1
+    fi
+}
+
+expect_failure()
+{
+    message="$1"
+    shift
+
+    if boot "$@"; then
+        echo "FAILED: the build did not fail with '$message'"
+        FAILED=1
+    elif ! grep -q -e "$message" "$OUTPUT"; then
+        cat "$OUTPUT"
+        echo "FAILED: the build did not fail with '$message'"
+        FAILED=1
+    fi
+
+    # the build gave up on the emulator stand-in without stopping it
+    touch "$DUELL_FAKE_ADB_DIR/emulator.stop"
+}
+
+# expect <description> <file> <pattern> [count], without a count the pattern has to be found at all
+expect()
+{
+    count="$(grep -c -e "$3" "$2" || true)"
+
+    if [ -z "$4" ]; then
+        matches=$([ "$count" != 0 ] && echo yes || echo no)
+    else
+        matches=$([ "$count" = "$4" ] && echo yes || echo no)
+    fi
+
+    if [ "$matches" = no ]; then
+        echo "FAILED: $1, '$3' found $count times"
+        FAILED=1
+    fi
+}
+
+EXTRA_ARGS="$*"
+
+echo "boot without problems"
+expect_success "ok ok"
+expect "the boot is reported" "$OUTPUT" "Emulator cold boot took .*s: online after .*s, boot completed .*s later"
+expect "the watchers run once" "$LOG" "wait-for-device\|sys.boot_completed" 2
+expect "adb is restarted at the start only" "$LOG" "^kill-server" 1
+expect "cold boot is the default" "$DUELL_FAKE_ADB_DIR/emulator.log" "-no-snapshot-load -no-snapshot-save"
+
+echo "failing watchers"
+expect_success "fail fail fail ok ok"
+expect "the first retry waits 1s" "$OUTPUT" "retrying in 1s" 1
+expect "the second retry waits 2s" "$OUTPUT" "retrying in 2s" 1
+expect "the third retry waits 4s" "$OUTPUT" "retrying in 4s" 1
+expect "adb is restarted after 3 failures" "$LOG" "^kill-server" 2
+
+echo "offline while booting"
+expect_success "fail ok fail ok ok"
+expect "the backoff starts over once the device is online" "$OUTPUT" "retrying in 1s" 2
+expect "the device is waited for again" "$LOG" "wait-for-device" 3
+
+echo "deadline"
+expect_failure "time out connecting to the emulator" "hang" -emulatortimeout 3
+
+echo "emulator exits"
+export DUELL_FAKE_EMULATOR_LIFETIME=1
+expect_failure "the emulator exited before it finished booting" "hang"
+unset DUELL_FAKE_EMULATOR_LIFETIME
+
+echo "quick boot"
+expect_success "ok ok" -emulatorquickboot
+expect "quick boot keeps the snapshot" "$DUELL_FAKE_ADB_DIR/emulator.log" "-no-snapshot" 0
+expect "the quick boot is reported" "$OUTPUT" "Emulator quick boot took"
+
+echo "wiped quick boot"
+expect_success "ok ok" -emulatorquickboot -wipeemulator
+expect "wiping the data boots cold" "$DUELL_FAKE_ADB_DIR/emulator.log" "-no-snapshot-load -no-snapshot-save -wipe-data"
+
+rm -rf "$DUELL_FAKE_ADB_DIR"
+
+if [ "$FAILED" != 0 ]; then
+    exit 1
+fi
+
+echo "waiting for the emulator works"
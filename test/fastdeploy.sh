@@ -0,0 +1,118 @@
+#!/bin/sh
+#
+# Checks -fastdeploy against the adb stand-in in test/adb, so no device is needed. Builds the given duell project
+# with -debug -fastdeploy a few times and changes the deployment manifest in between, so that every path of the
+# delta deployment runs: the first installation, an unchanged build, a changed and a removed native library, a
+# changed java part and an app that was uninstalled.
+#
+# usage: test/fastdeploy.sh <duell project folder> [extra duell arguments]
+
+set -e
+
+TEST_DIR="$(cd "$(dirname "$0")" && pwd)"
+PROJECT="$1"
+shift || true
+
+if [ -z "$PROJECT" ]; then
+    echo "usage: $0 <duell project folder> [extra duell arguments]"
+    exit 2
+fi
+
+export DUELL_FAKE_ADB_DIR="$(mktemp -d)"
+export DUELL_FAKE_ADB_SERIAL="fastdeploy-test"
+LOG="$DUELL_FAKE_ADB_DIR/commands.log"
+FAILED=0
+
+deploy()
+{
+    rm -f "$LOG"
+    (cd "$PROJECT" && duell build android -debug -fastdeploy -adbpath "$TEST_DIR/adb" "$@") > "$DUELL_FAKE_ADB_DIR/build.log" 2>&1 ||
+        { cat "$DUELL_FAKE_ADB_DIR/build.log"; echo "FAILED: the build failed"; exit 1; }
+}
+
+expect()
+{
+    if ! grep -q -e "$2" "$LOG"; then
+        echo "FAILED: $1, no adb call matches '$2'"
+        FAILED=1
+    fi
+}
+
+expect_not()
+{
+    if grep -q -e "$2" "$LOG"; then
+        echo "FAILED: $1, unexpected adb call '$(grep -e "$2" "$LOG" | head -n 1)'"
+        FAILED=1
+    fi
+}
+
+# replaces the hash of the manifest entry with the given name
+change_hash()
+{
+    sed -i.bak "s|^[0-9a-f]* \(.* $1\)\$|0000 \1|" "$MANIFEST"
+    rm -f "$MANIFEST.bak"
+}
+
+echo "first deployment"
+deploy "$@"
+expect "the first deployment installs the apk" "^install -r "
+expect "the installation removes pushed files" "run-as .* rm -r files/duell_fastdeploy$"
+
+MANIFEST="$(find "$PROJECT" -path "*/fastdeploy/$DUELL_FAKE_ADB_SERIAL.txt" | head -n 1)"
+if [ -z "$MANIFEST" ]; then
+    echo "FAILED: no deployment manifest for $DUELL_FAKE_ADB_SERIAL"
+    exit 1
+fi
+
+LIBRARY="$(grep -o ' lib/.*\.so$' "$MANIFEST" | head -n 1 | cut -c2-)"
+PACKAGE="$(grep '^shell pm path ' "$LOG" | head -n 1 | cut -d ' ' -f 4)"
+
+if [ -z "$LIBRARY" ]; then
+    echo "FAILED: no native library in $MANIFEST"
+    exit 1
+fi
+
+echo "unchanged"
+deploy "$@"
+expect_not "an unchanged build installs nothing" "^install "
+expect_not "an unchanged build pushes nothing" "^push "
+
+echo "changed $LIBRARY"
+change_hash "$LIBRARY"
+deploy "$@"
+expect_not "a changed library does not install the apk" "^install "
+expect "a changed library is pushed" "^push .* /data/local/tmp/duell_fastdeploy/.*/$LIBRARY$"
+expect "a changed library is copied for the app" "run-as .* cp .*/$LIBRARY files/duell_fastdeploy/$LIBRARY$"
+expect "the app is restarted with the new library" "^shell am force-stop "
+if [ "$(grep -c '^push ' "$LOG")" != 1 ]; then
+    echo "FAILED: only the changed library is pushed"
+    FAILED=1
+fi
+if [ ! -f "$DUELL_FAKE_ADB_DIR/device/data/data/$PACKAGE/files/duell_fastdeploy/$LIBRARY" ]; then
+    echo "FAILED: $LIBRARY is not in the data folder of $PACKAGE on the device"
+    FAILED=1
+fi
+
+echo "removed library"
+echo "0000 1 1 lib/libremoved.so" >> "$MANIFEST"
+deploy "$@"
+expect_not "a removed library does not install the apk" "^install "
+expect "a removed library is deleted" "run-as .* rm -f files/duell_fastdeploy/lib/libremoved.so$"
+
+echo "changed java part"
+change_hash "apk"
+deploy "$@"
+expect "a changed java part installs the apk" "^install -r "
+
+echo "uninstalled app"
+rm -f "$DUELL_FAKE_ADB_DIR/installed"
+deploy "$@"
+expect "an uninstalled app is installed again" "^install -r "
+
+rm -rf "$DUELL_FAKE_ADB_DIR"
+
+if [ "$FAILED" != 0 ]; then
+    exit 1
+fi
+
+echo "fast deploy works"